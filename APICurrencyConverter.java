@@ -1,7 +1,3 @@
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Scanner;
 import org.json.JSONObject;
 
@@ -20,37 +16,24 @@ public class APICurrencyConverter {
     // Alternative API (European Central Bank rates)
     // private static final String API_URL = "https://api.frankfurter.app/latest?from=";
     
+    // Time allowed for queueing + connect + read
+    private static final long REQUEST_TIMEOUT = 10000;
+    
     /**
      * Fetches exchange rates from API for a given base currency
+     * Requests are queued through the shared FetchScheduler so we stay
+     * within the API's rate limit.
      * @param baseCurrency The base currency code (e.g., "USD")
      * @return JSONObject containing exchange rates
      */
     public static JSONObject getExchangeRates(String baseCurrency) throws Exception {
         String urlString = API_URL + baseCurrency;
-        URL url = new URL(urlString);
-        
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(5000);
         
-        int responseCode = conn.getResponseCode();
-        
-        if (responseCode == 200) {
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream())
-            );
-            StringBuilder response = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            reader.close();
-            
-            return new JSONObject(response.toString());
-        } else {
-            throw new Exception("API request failed with response code: " + responseCode);
+        try {
+            return FetchScheduler.shared().fetch(urlString, null, null, 0,
+                FetchScheduler.Priority.INTERACTIVE, REQUEST_TIMEOUT).data;
+        } catch (RateFetcher.HttpStatusException e) {
+            throw new Exception("API request failed with response code: " + e.status);
         }
     }
     
@@ -126,7 +109,31 @@ public class APICurrencyConverter {
         }
     }
     
+    /**
+     * One conversion without prompts, for scripts and the fast-start launcher
+     * @return Process exit status
+     */
+    public static int convertOnce(String amountText, String fromCurrency, String toCurrency) {
+        try {
+            double amount = Double.parseDouble(amountText);
+            double result = convertCurrency(amount, fromCurrency, toCurrency);
+            System.out.printf("%.2f %s = %.2f %s%n", amount, fromCurrency.toUpperCase(),
+                result, toCurrency.toUpperCase());
+            return 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid amount: " + amountText);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+    
     public static void main(String[] args) {
+        // java APICurrencyConverter AMOUNT FROM TO converts once and exits
+        if (args.length == 3) {
+            System.exit(convertOnce(args[0], args[1], args[2]));
+        }
+        
         Scanner scanner = new Scanner(System.in);
         
         System.out.println("==========================================");
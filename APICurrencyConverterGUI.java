@@ -1,10 +1,6 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -17,6 +13,7 @@ import java.util.List;
 public class APICurrencyConverterGUI extends JFrame {
     
     private static final String API_URL = "https://api.exchangerate-api.com/v4/latest/";
+    private static final long REQUEST_TIMEOUT = 10000; // queueing + connect + read
     
     // GUI Components
     private JComboBox<String> fromCurrencyCombo;
@@ -27,11 +24,16 @@ public class APICurrencyConverterGUI extends JFrame {
     private JButton convertButton;
     private JButton swapButton;
     private JButton refreshButton;
+    private JButton chartButton;
     private List<String> currencyList;
     
+    // Every fetched document, for charts; null until loaded
+    private volatile RateHistory history;
+    
     public APICurrencyConverterGUI() {
         // Initialize currency list
         currencyList = new ArrayList<>();
+        loadHistory();
         loadCurrencyList();
         
         // Set up the frame
@@ -41,6 +43,17 @@ public class APICurrencyConverterGUI extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
         
+        // Release the history file when the window closes
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                RateHistory current = history;
+                if (current != null) {
+                    current.close();
+                }
+            }
+        });
+        
         // Create main panel
         JPanel mainPanel = new JPanel();
         mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
@@ -134,8 +147,15 @@ public class APICurrencyConverterGUI extends JFrame {
         refreshButton.setFocusPainted(false);
         refreshButton.addActionListener(e -> loadCurrencyList());
         
+        chartButton = new JButton("Chart");
+        chartButton.setFont(new Font("Arial", Font.PLAIN, 14));
+        chartButton.setPreferredSize(new Dimension(100, 45));
+        chartButton.setFocusPainted(false);
+        chartButton.addActionListener(e -> showChart());
+        
         buttonPanel.add(convertButton);
         buttonPanel.add(refreshButton);
+        buttonPanel.add(chartButton);
         mainPanel.add(buttonPanel);
         mainPanel.add(Box.createRigidArea(new Dimension(0, 25)));
         
@@ -191,8 +211,10 @@ public class APICurrencyConverterGUI extends JFrame {
             @Override
             protected Void doInBackground() throws Exception {
                 try {
-                    JSONObject data = getExchangeRates("USD");
+                    // Background refresh: must not crowd out conversions
+                    JSONObject data = getExchangeRates("USD", FetchScheduler.Priority.REFRESH);
                     JSONObject rates = data.getJSONObject("rates");
+                    recordHistory(data);
                     
                     currencyList.clear();
                     currencyList.add("USD");
@@ -244,32 +266,14 @@ public class APICurrencyConverterGUI extends JFrame {
     
     /**
      * Fetches exchange rates from API
+     * Requests are queued through the shared FetchScheduler in the given lane
      */
-    private JSONObject getExchangeRates(String baseCurrency) throws Exception {
+    private JSONObject getExchangeRates(String baseCurrency, FetchScheduler.Priority priority) throws Exception {
         String urlString = API_URL + baseCurrency;
-        URL url = new URL(urlString);
-        
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(5000);
         
-        int responseCode = conn.getResponseCode();
-        
-        if (responseCode == 200) {
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream())
-            );
-            StringBuilder response = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            reader.close();
-            
-            return new JSONObject(response.toString());
-        } else {
+        try {
+            return FetchScheduler.shared().fetch(urlString, null, null, 0, priority, REQUEST_TIMEOUT).data;
+        } catch (RateFetcher.HttpStatusException e) {
             throw new Exception("API request failed");
         }
     }
@@ -302,8 +306,9 @@ public class APICurrencyConverterGUI extends JFrame {
                         "Exchange Rate: 1.000000"};
                 }
                 
-                JSONObject data = getExchangeRates(fromCurrency);
+                JSONObject data = getExchangeRates(fromCurrency, FetchScheduler.Priority.INTERACTIVE);
                 JSONObject rates = data.getJSONObject("rates");
+                recordHistory(data);
                 double exchangeRate = rates.getDouble(toCurrency);
                 double result = amount * exchangeRate;
                 
@@ -346,6 +351,61 @@ public class APICurrencyConverterGUI extends JFrame {
         worker.execute();
     }
     
+    /**
+     * Reads the rate history off the EDT
+     */
+    private void loadHistory() {
+        SwingWorker<RateHistory, Void> worker = new SwingWorker<RateHistory, Void>() {
+            @Override
+            protected RateHistory doInBackground() throws Exception {
+                return RateHistory.forDefaultFile();
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    history = get();
+                } catch (Exception e) {
+                    System.err.println("Rate history unavailable: " + e.getMessage());
+                    history = new RateHistory();
+                }
+            }
+        };
+        worker.execute();
+    }
+    
+    /**
+     * Adds a fetched document to the history; called from workers, never the EDT
+     */
+    private void recordHistory(JSONObject data) {
+        RateHistory current = history;
+        if (current != null) {
+            current.record(data);
+        }
+    }
+    
+    /**
+     * Opens a chart of the selected pair from the local history; nothing is
+     * fetched for it
+     */
+    private void showChart() {
+        if (history == null) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Rate history is still loading.",
+                "Chart",
+                JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        String fromCurrency = (String) fromCurrencyCombo.getSelectedItem();
+        String toCurrency = (String) toCurrencyCombo.getSelectedItem();
+        if (fromCurrency == null || toCurrency == null) {
+            return;
+        }
+        RateChartPanel.showChart(this, history, fromCurrency, toCurrency);
+    }
+    
     /**
      * Swaps the from and to currencies
      */
@@ -0,0 +1,267 @@
+import java.net.URI;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONObject;
+
+/**
+ * Per-base cache lifetimes from the provider's schedule and observed volatility
+ * Stats are kept per base and source, since two endpoints' documents are
+ * not consecutive publications of one series. These limits are combined
+ * and the tightest one wins:
+ * - Schedule: nothing changes upstream before the provider's next
+ *   publication (time_next_update_unix, daily after time_last_updated, or
+ *   the ECB's 16:00 CET business-day fix for a frankfurter "date"), so a
+ *   calm daily source is fetched once per publication instead of hourly.
+ * - Volatility: the largest log move of any currency between consecutive
+ *   publications, scaled to variance per millisecond and smoothed (EWMA),
+ *   gives the time in which the expected move reaches TOLERANCE. Volatile
+ *   bases from sources that publish often expire sooner.
+ * - Headers: a Cache-Control max-age or Expires sent by the provider.
+ * Without any of them, the fetcher's default expiry is used. Results stay
+ * within MIN_TTL and MAX_TTL.
+ */
+public class AdaptiveTtl {
+    
+    static final long MIN_TTL = 60000;                    // 1 minute
+    static final long MAX_TTL = 86400000;                 // 1 day
+    private static final long DAILY = 86400000;
+    private static final long GRACE = 120000;             // let the provider finish publishing
+    private static final double TOLERANCE = 0.001;        // accept 0.1% expected drift
+    private static final double SMOOTHING = 0.3;
+    private static final LocalTime ECB_FIX = LocalTime.of(16, 0);
+    
+    /**
+     * Loading time zone rules takes tens of milliseconds; only frankfurter
+     * documents need them
+     */
+    private static final class Ecb {
+        static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    }
+    
+    /**
+     * What is known about one base; replaced as a whole on every update
+     */
+    public static final class Stats {
+        public final long ttlMillis;            // last lifetime handed out
+        public final double volatilityPerHour;  // smoothed sigma of log moves per sqrt(hour), NaN if unknown
+        public final long nextPublication;      // epoch millis, or -1 if the source gives no schedule
+        public final int samples;               // publications compared
+        final JSONObject lastRates;
+        final long lastPublished;
+        final double variancePerMilli;
+        
+        Stats(long ttlMillis, double variancePerMilli, long nextPublication, int samples,
+                JSONObject lastRates, long lastPublished) {
+            this.ttlMillis = ttlMillis;
+            this.variancePerMilli = variancePerMilli;
+            this.volatilityPerHour = Math.sqrt(variancePerMilli * 3600000);
+            this.nextPublication = nextPublication;
+            this.samples = samples;
+            this.lastRates = lastRates;
+            this.lastPublished = lastPublished;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("ttl %d s, volatility %.4f%%/sqrt(h), %d samples",
+                ttlMillis / 1000, volatilityPerHour * 100, samples);
+        }
+    }
+    
+    private final Map<String, Stats> bases = new ConcurrentHashMap<>();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    
+    /**
+     * Records a fetched document and returns when it should expire
+     * @param source Endpoint the document came from, or null
+     * @param fallback Expiry the fetcher worked out (schedule, headers or default)
+     * @param headerExpiry Expiry from Cache-Control / Expires, or -1 if not sent
+     */
+    public long expiresAt(String base, String source, JSONObject data, long now, long fallback, long headerExpiry) {
+        long published = publishedAt(data, now);
+        long next = nextPublication(data);
+        
+        String key = key(base, source);
+        Stats previous = bases.get(key);
+        double variance = previous == null ? Double.NaN : previous.variancePerMilli;
+        int samples = previous == null ? 0 : previous.samples;
+        JSONObject rates = data.optJSONObject("rates");
+        JSONObject latest = rates != null ? rates : previous != null ? previous.lastRates : null;
+        
+        if (previous != null && rates != null) {
+            double move = largestMove(previous.lastRates, rates);
+            if (move == 0) {
+                unchanged.increment();
+            } else {
+                changed.increment();
+                long elapsed = published - previous.lastPublished;
+                if (elapsed > 0) {
+                    double sample = move * move / elapsed;
+                    variance = Double.isNaN(variance) ? sample : (1 - SMOOTHING) * variance + SMOOTHING * sample;
+                    samples++;
+                }
+            }
+        }
+        
+        long ttl = ttl(next, variance, now, fallback, headerExpiry);
+        bases.put(key, new Stats(ttl, variance, next, samples, latest, published));
+        return now + ttl;
+    }
+    
+    /**
+     * Expiry after upstream confirmed the cached document (304 Not Modified)
+     */
+    public long revalidated(String base, String source, JSONObject data, long now, long fallback,
+            long headerExpiry) {
+        unchanged.increment();
+        Stats stats = bases.get(key(base, source));
+        if (stats == null) {
+            return expiresAt(base, source, data, now, fallback, headerExpiry);
+        }
+        return now + ttl(stats.nextPublication, stats.variancePerMilli, now, fallback, headerExpiry);
+    }
+    
+    /**
+     * Stats key: the base alone for documents without a source, else base@host
+     */
+    static String key(String base, String source) {
+        if (source == null) {
+            return base;
+        }
+        try {
+            String host = URI.create(source).getHost();
+            return base + "@" + (host != null ? host : source);
+        } catch (IllegalArgumentException e) {
+            return base + "@" + source;
+        }
+    }
+    
+    /**
+     * The tightest of the schedule, volatility and header limits, within bounds
+     */
+    private static long ttl(long nextPublication, double variancePerMilli, long now, long fallback,
+            long headerExpiry) {
+        long limit = Long.MAX_VALUE;
+        if (nextPublication > 0) {
+            long until = nextPublication + GRACE - now;
+            // A late publication (holiday, outage) is polled less often the later it gets
+            limit = until > 0 ? until : -until / 2;
+        }
+        if (variancePerMilli > 0) {
+            limit = Math.min(limit, (long) (TOLERANCE * TOLERANCE / variancePerMilli));
+        }
+        if (headerExpiry >= 0) {
+            // The provider's max-age still holds when a schedule is known
+            limit = Math.min(limit, headerExpiry - now);
+        }
+        if (limit == Long.MAX_VALUE) {
+            limit = fallback - now;
+        }
+        return Math.max(MIN_TTL, Math.min(MAX_TTL, limit));
+    }
+    
+    /**
+     * Stats for one base and source, or null if nothing was recorded
+     */
+    public Stats getStats(String base, String source) {
+        return bases.get(key(base, source));
+    }
+    
+    /**
+     * Every base and source, keyed "BASE@host" (or the base alone)
+     */
+    public Map<String, Stats> getStats() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(bases));
+    }
+    
+    /**
+     * Fetches that brought new rates / that brought the same rates again
+     */
+    public long[] getFetchCounts() {
+        return new long[] { changed.sum(), unchanged.sum() };
+    }
+    
+    /**
+     * Largest absolute log change of any currency quoted in both documents
+     */
+    static double largestMove(JSONObject before, JSONObject after) {
+        if (before == null) {
+            return 0;
+        }
+        double largest = 0;
+        for (String code : after.keySet()) {
+            double old = before.optDouble(code, Double.NaN);
+            double now = after.optDouble(code, Double.NaN);
+            if (old > 0 && now > 0) {
+                largest = Math.max(largest, Math.abs(Math.log(now / old)));
+            }
+        }
+        return largest;
+    }
+    
+    /**
+     * When the provider published this document, or the fetch time
+     */
+    static long publishedAt(JSONObject data, long now) {
+        if (data.has("time_last_update_unix")) {
+            return data.getLong("time_last_update_unix") * 1000;
+        }
+        if (data.has("time_last_updated")) {
+            return data.getLong("time_last_updated") * 1000;
+        }
+        if (data.has("date")) {
+            try {
+                return ZonedDateTime.of(LocalDate.parse(data.getString("date")), ECB_FIX, Ecb.ZONE)
+                    .toInstant().toEpochMilli();
+            } catch (RuntimeException e) {
+                // Not an ISO date; fall through
+            }
+        }
+        return now;
+    }
+    
+    /**
+     * When the provider will publish next, or -1 if unknown
+     */
+    static long nextPublication(JSONObject data) {
+        if (data.has("time_next_update_unix")) {
+            return data.getLong("time_next_update_unix") * 1000;
+        }
+        if (data.has("time_last_update_unix")) {
+            return data.getLong("time_last_update_unix") * 1000 + DAILY;
+        }
+        if (data.has("time_last_updated")) {
+            return data.getLong("time_last_updated") * 1000 + DAILY;
+        }
+        if (data.has("date")) {
+            try {
+                return nextBusinessDayFix(LocalDate.parse(data.getString("date")));
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * ECB reference rates appear at about 16:00 CET on business days
+     */
+    static long nextBusinessDayFix(LocalDate date) {
+        LocalDate next = date.plusDays(1);
+        while (next.getDayOfWeek() == DayOfWeek.SATURDAY || next.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            next = next.plusDays(1);
+        }
+        Instant fix = ZonedDateTime.of(next, ECB_FIX, Ecb.ZONE).toInstant();
+        return fix.toEpochMilli();
+    }
+}
\ No newline at end of file
@@ -1,8 +1,21 @@
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.StringReader;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import org.json.JSONObject;
 
 /**
@@ -12,6 +25,11 @@ import org.json.JSONObject;
  * - Caching to reduce API calls
  * - Support for 150+ currencies
  * - Error handling and retry logic
+ * - Optional multi-source consensus (run with --consensus)
+ * - Optional shared cache sidecar (run with --sidecar host:port)
+ * - Non-interactive batch mode (run with --batch [FILE], see runBatch)
+ * - One-shot conversion for scripts (run with --convert AMOUNT FROM TO[,TO...])
+ * - Optional audit journal of every conversion (run with --journal DIR)
  */
 public class AdvancedAPICurrencyConverter {
     
@@ -21,24 +39,157 @@ public class AdvancedAPICurrencyConverter {
         "https://api.frankfurter.app/latest?from="
     };
     
-    private static int currentAPIIndex = 0;
-    private static Map<String, CachedRates> rateCache = new HashMap<>();
+    private static volatile int currentAPIIndex = 0;
+    private static Map<String, CachedRates> rateCache = new ConcurrentHashMap<>();
     private static final long CACHE_DURATION = 3600000; // 1 hour in milliseconds
     
+    // Per-base lifetimes from the provider's schedule and observed volatility
+    private static final AdaptiveTtl adaptiveTtl = new AdaptiveTtl();
+    
+    // Rates fed by RateTickPipeline; swapped as a whole, read without locks
+    private static volatile RateTable liveRates;
+    
+    // Routes across every source's documents, used when the active source lacks a pair
+    private static final CurrencyGraph rateGraph = new CurrencyGraph();
+    
+    // Subscribers to fresh snapshots (see RateSnapshotPublisher)
+    private static final RateSnapshotPublisher snapshotPublisher = new RateSnapshotPublisher();
+    
+    // Consensus mode: query every endpoint in parallel and combine the answers
+    private static boolean consensusMode = false;
+    
+    /**
+     * Created on first use, so one-shot conversions do not pay for it
+     */
+    private static final class Consensus {
+        static final RateConsensus INSTANCE = new RateConsensus();
+    }
+    
+    // Outbound requests go through the shared quota-aware scheduler
+    private static final long BATCH_BUDGET = 10000; // whole console batch, all attempts included
+    private static final long REQUEST_TIMEOUT = 10000; // queueing + connect + read
+    
+    // Shared cache sidecar; snapshots from it are near-cached for a short time
+    private static volatile RateCacheSidecar.Client sidecar;
+    private static volatile long sidecarDownUntil = 0;
+    private static final long NEAR_CACHE_TTL = 30000;  // revalidate with the sidecar every 30 s
+    private static final long SIDECAR_RETRY = 30000;   // after a failure, fetch directly for 30 s
+    
+    // Async API: one shared fetch per base in flight, blocking paths run on a small pool
+    private static final Map<String, CompletableFuture<JSONObject>> asyncFetches = new ConcurrentHashMap<>();
+    private static final class AsyncPool {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "rate-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // Rates published by another converter on this host, read in place
+    private static volatile SharedRateTable sharedRates;
+    
+    // Audit trail of every conversion (run with --journal DIR)
+    private static volatile ConversionJournal journal;
+    private static final String SAME_CURRENCY = "same currency";
+    private static final String GRAPH = "rate graph";
+    
+    // Status messages and results; cache hits are logged at DEBUG
+    private static final ConsoleOutput output = ConsoleOutput.shared();
+    private static final MoneyCodec money = MoneyCodec.STANDARD;    // amounts may use 1,234.56 grouping
+    
+    // Interactive cache hits / misses, reported by the prefetcher
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder cacheMisses = new LongAdder();
+    
+    static final String[][] POPULAR_CURRENCIES = {
+        {"USD", "US Dollar"},
+        {"EUR", "Euro"},
+        {"GBP", "British Pound"},
+        {"JPY", "Japanese Yen"},
+        {"CHF", "Swiss Franc"},
+        {"CAD", "Canadian Dollar"},
+        {"AUD", "Australian Dollar"},
+        {"CNY", "Chinese Yuan"},
+        {"INR", "Indian Rupee"},
+        {"KRW", "South Korean Won"},
+        {"BRL", "Brazilian Real"},
+        {"MXN", "Mexican Peso"},
+        {"ZAR", "South African Rand"},
+        {"SGD", "Singapore Dollar"},
+        {"HKD", "Hong Kong Dollar"}
+    };
+    
     /**
      * Inner class to store cached exchange rates with timestamp
+     * Also keeps the HTTP validators of the response so an expired entry can
+     * be revalidated with a conditional GET instead of downloaded again.
      */
     static class CachedRates {
         JSONObject rates;
         long timestamp;
+        volatile long expiresAt;
+        String sourceUrl;
+        volatile String etag;
+        volatile String lastModified;
+        volatile long headerExpiry = -1;
+        long sidecarVersion;
         
         CachedRates(JSONObject rates, long timestamp) {
             this.rates = rates;
             this.timestamp = timestamp;
+            this.expiresAt = timestamp + CACHE_DURATION;
+        }
+        
+        CachedRates(JSONObject rates, long timestamp, String sourceUrl, RateFetcher.Response response) {
+            this.rates = rates;
+            this.timestamp = timestamp;
+            this.expiresAt = response.expiresAt;
+            this.sourceUrl = sourceUrl;
+            this.etag = response.etag;
+            this.lastModified = response.lastModified;
+            this.headerExpiry = response.headerExpiry;
         }
         
         boolean isExpired() {
-            return (System.currentTimeMillis() - timestamp) > CACHE_DURATION;
+            return System.currentTimeMillis() > expiresAt;
+        }
+        
+        /**
+         * Takes a 304's validators (upstream may rotate them) and new expiry
+         */
+        void revalidated(RateFetcher.Response response, long expiresAt) {
+            this.etag = response.etag;
+            this.lastModified = response.lastModified;
+            this.headerExpiry = response.headerExpiry;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * Outcome of a conversion made within a deadline
+     */
+    public static class ConversionResult {
+        public enum Status {
+            OK,         // converted with fresh rates
+            STALE,      // deadline passed; converted with the last known rates
+            TIMED_OUT,  // deadline passed and no rates were known
+            FAILED      // upstream or currency error
+        }
+        
+        public final String currency;
+        public final double value;     // NaN unless OK or STALE
+        public final Status status;
+        public final String error;     // null unless TIMED_OUT or FAILED
+        
+        ConversionResult(String currency, double value, Status status, String error) {
+            this.currency = currency;
+            this.value = value;
+            this.status = status;
+            this.error = error;
+        }
+        
+        public boolean hasValue() {
+            return status == Status.OK || status == Status.STALE;
         }
     }
     
@@ -46,33 +197,167 @@ public class AdvancedAPICurrencyConverter {
      * Fetches exchange rates with automatic API fallback
      */
     public static JSONObject getExchangeRates(String baseCurrency) throws Exception {
+        return getExchangeRates(baseCurrency, FetchScheduler.Priority.INTERACTIVE);
+    }
+    
+    /**
+     * Fetches exchange rates, queueing any upstream request in the given lane
+     */
+    public static JSONObject getExchangeRates(String baseCurrency, FetchScheduler.Priority priority)
+            throws Exception {
+        boolean interactive = priority == FetchScheduler.Priority.INTERACTIVE;
+        if (interactive) {
+            RatePrefetcher.recordAccess(baseCurrency);
+        }
+        
         // Check cache first
-        if (rateCache.containsKey(baseCurrency)) {
-            CachedRates cached = rateCache.get(baseCurrency);
-            if (!cached.isExpired()) {
-                System.out.println("✓ Using cached rates (fresh)");
-                return cached.rates;
+        CachedRates cached = rateCache.get(baseCurrency);
+        if (cached != null && !cached.isExpired()) {
+            if (interactive) {
+                cacheHits.increment();
+                output.debug("✓ Using cached rates (fresh)");
+            }
+            return cached.rates;
+        }
+        if (interactive) {
+            cacheMisses.increment();
+        }
+        
+        return refreshExchangeRates(baseCurrency, priority);
+    }
+    
+    /**
+     * Fetches rates from upstream even if the cached copy is still fresh
+     * (revalidating it when possible). Only interactive fetches are reported
+     * on the console, so background refreshes stay silent.
+     */
+    public static JSONObject refreshExchangeRates(String baseCurrency, FetchScheduler.Priority priority)
+            throws Exception {
+        return refreshExchangeRates(baseCurrency, priority, priority == FetchScheduler.Priority.INTERACTIVE);
+    }
+    
+    private static JSONObject refreshExchangeRates(String baseCurrency, FetchScheduler.Priority priority,
+            boolean verbose) throws Exception {
+        return refreshExchangeRates(baseCurrency, priority, verbose, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Every step (sidecar, each endpoint attempt, consensus) gets only the
+     * time left before the deadline
+     * @throws TimeoutException once the deadline has passed
+     */
+    private static JSONObject refreshExchangeRates(String baseCurrency, FetchScheduler.Priority priority,
+            boolean verbose, long deadline) throws Exception {
+        if (remaining(deadline) <= 0) {
+            throw new TimeoutException("Deadline passed before fetching " + baseCurrency);
+        }
+        CachedRates cached = rateCache.get(baseCurrency);
+        
+        if (sidecar != null && System.currentTimeMillis() >= sidecarDownUntil) {
+            try {
+                RateCacheSidecar.Reply reply = sidecar.get(baseCurrency, cached != null ? cached.sidecarVersion : 0,
+                    remaining(deadline));
+                long now = System.currentTimeMillis();
+                long expiresAt = reply.expiresAt > now ? Math.min(reply.expiresAt, now + NEAR_CACHE_TTL) : now + NEAR_CACHE_TTL;
+                
+                if (reply.notModified && cached != null) {
+                    cached.expiresAt = expiresAt;
+                    return cached.rates;
+                }
+                if (reply.data != null) {
+                    CachedRates entry = new CachedRates(reply.data, now);
+                    entry.expiresAt = expiresAt;
+                    entry.sidecarVersion = reply.version;
+                    store(baseCurrency, entry);
+                    if (verbose) {
+                        output.info("✓ Fetched rates from sidecar (version " + reply.version + ")");
+                    }
+                    return reply.data;
+                }
+            } catch (IOException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    // Our budget ran out, not the sidecar
+                    throw new TimeoutException("Deadline passed waiting for sidecar");
+                }
+                sidecarDownUntil = System.currentTimeMillis() + SIDECAR_RETRY;
+                if (verbose) {
+                    output.warn("✗ Sidecar unavailable, fetching directly...");
+                }
+            } catch (Exception e) {
+                if (verbose) {
+                    output.warn("✗ Sidecar failed (" + e.getMessage() + "), fetching directly...");
+                }
+            }
+        }
+        
+        if (consensusMode) {
+            JSONObject data = fetchConsensus(baseCurrency, priority, deadline);
+            store(baseCurrency, new CachedRates(data, System.currentTimeMillis()));
+            
+            if (verbose) {
+                output.info("✓ Fetched consensus rates from " + data.getJSONArray("sources").length() + " sources");
+            }
+            List<String> flagged = RateConsensus.outlierCodes(data);
+            if (verbose && !flagged.isEmpty()) {
+                output.warn("⚠ Sources disagree on: " + String.join(", ", flagged));
             }
+            return data;
         }
         
         Exception lastException = null;
+        // Only interactive fetches move the shared endpoint choice; background
+        // lanes wait behind token reserves and would rotate it for no real fault
+        boolean interactive = priority == FetchScheduler.Priority.INTERACTIVE;
+        int index = currentAPIIndex;
         
         // Try each API endpoint
         for (int i = 0; i < API_ENDPOINTS.length; i++) {
+            long timeout = remaining(deadline);
+            if (timeout <= 0) {
+                throw new TimeoutException("Deadline passed after " + i + " endpoint attempt(s)");
+            }
+            
             try {
-                String apiUrl = API_ENDPOINTS[currentAPIIndex] + baseCurrency;
-                JSONObject data = fetchFromAPI(apiUrl);
+                String apiUrl = API_ENDPOINTS[index] + baseCurrency;
+                
+                // Revalidate the expired copy if it came from this endpoint
+                boolean revalidate = cached != null && apiUrl.equals(cached.sourceUrl);
+                RateFetcher.Response response = FetchScheduler.shared().fetch(apiUrl,
+                    revalidate ? cached.etag : null,
+                    revalidate ? cached.lastModified : null,
+                    CACHE_DURATION, priority, timeout);
+                
+                if (response.isNotModified() && revalidate) {
+                    cached.revalidated(response, adaptiveTtl.revalidated(baseCurrency, cached.sourceUrl, cached.rates,
+                        System.currentTimeMillis(), response.expiresAt, response.headerExpiry));
+                    if (verbose) {
+                        output.info("✓ Rates unchanged upstream (304), cache extended");
+                    }
+                    return cached.rates;
+                }
+                if (response.data == null) {
+                    throw new Exception("HTTP " + response.status);
+                }
+                JSONObject data = response.data;
                 
                 // Cache the result
-                rateCache.put(baseCurrency, new CachedRates(data, System.currentTimeMillis()));
+                store(baseCurrency, new CachedRates(data, System.currentTimeMillis(), apiUrl, response));
                 
-                System.out.println("✓ Fetched fresh rates from API " + (currentAPIIndex + 1));
+                if (verbose) {
+                    output.info("✓ Fetched fresh rates from API " + (index + 1));
+                }
                 return data;
                 
             } catch (Exception e) {
                 lastException = e;
-                System.out.println("✗ API " + (currentAPIIndex + 1) + " failed, trying next...");
-                currentAPIIndex = (currentAPIIndex + 1) % API_ENDPOINTS.length;
+                if (verbose) {
+                    output.warn("✗ API " + (index + 1) + " failed, trying next...");
+                }
+                // A scheduler queue or deadline timeout says nothing about the endpoint
+                if (interactive && !(e instanceof TimeoutException) && index == currentAPIIndex) {
+                    currentAPIIndex = (index + 1) % API_ENDPOINTS.length;
+                }
+                index = (index + 1) % API_ENDPOINTS.length;
             }
         }
         
@@ -80,62 +365,626 @@ public class AdvancedAPICurrencyConverter {
     }
     
     /**
-     * Fetches data from API endpoint
+     * Caches freshly fetched rates and passes them on to the rate graph and
+     * to snapshot subscribers. Upstream documents get an adaptive lifetime;
+     * sidecar copies keep the sidecar's.
      */
-    private static JSONObject fetchFromAPI(String urlString) throws Exception {
-        URL url = new URL(urlString);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(5000);
-        conn.setRequestProperty("User-Agent", "Mozilla/5.0");
+    private static void store(String baseCurrency, CachedRates entry) {
+        if (entry.sidecarVersion == 0) {
+            entry.expiresAt = adaptiveTtl.expiresAt(baseCurrency, entry.sourceUrl, entry.rates, entry.timestamp,
+                entry.expiresAt, entry.headerExpiry);
+            if (output.isEnabled(ConsoleOutput.Level.DEBUG)) {
+                output.debug("TTL " + baseCurrency + ": " + adaptiveTtl.getStats(baseCurrency, entry.sourceUrl));
+            }
+        }
+        rateCache.put(baseCurrency, entry);
+        rateGraph.addRates(baseCurrency, entry.rates.getJSONObject("rates"), entry.timestamp);
+        if (snapshotPublisher.getSubscriberCount() > 0) {
+            snapshotPublisher.publish(RateTable.fromJSON(entry.rates));
+        }
+    }
+    
+    /**
+     * Adds the other endpoints' view of a base to the rate graph, so pairs the
+     * active source does not quote can still be routed. Called from the
+     * prefetcher's background lane; the cache is left alone.
+     */
+    static void feedRateGraph(String baseCurrency) {
+        if (consensusMode) {
+            return; // consensus documents already carry every source's codes
+        }
+        CachedRates cached = rateCache.get(baseCurrency);
+        for (String endpoint : API_ENDPOINTS) {
+            String url = endpoint + baseCurrency;
+            if (cached != null && url.equals(cached.sourceUrl)) {
+                continue; // in the graph already, through store()
+            }
+            try {
+                RateFetcher.Response response = FetchScheduler.shared().fetch(url, null, null, CACHE_DURATION,
+                    FetchScheduler.Priority.PREFETCH, REQUEST_TIMEOUT);
+                if (response.data != null) {
+                    rateGraph.addRates(baseCurrency, response.data.getJSONObject("rates"), System.currentTimeMillis());
+                }
+            } catch (Exception e) {
+                output.debug("Rate graph feed from " + url + " failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Fetches every endpoint in parallel and combines them per currency,
+     * so the total cost stays close to the slowest single round trip
+     */
+    private static JSONObject fetchConsensus(String baseCurrency, FetchScheduler.Priority priority,
+            long deadline) throws Exception {
+        List<CompletableFuture<RateFetcher.Response>> responses = new ArrayList<>();
+        for (String endpoint : API_ENDPOINTS) {
+            responses.add(FetchScheduler.shared().submit(endpoint + baseCurrency, null, null,
+                CACHE_DURATION, priority, remaining(deadline)));
+        }
         
-        int responseCode = conn.getResponseCode();
+        Map<String, Map<String, Double>> bySource = new LinkedHashMap<>();
+        Exception lastException = null;
         
-        if (responseCode == 200) {
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream())
-            );
-            StringBuilder response = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+        for (int i = 0; i < API_ENDPOINTS.length; i++) {
+            String source = new URL(API_ENDPOINTS[i]).getHost();
+            try {
+                RateFetcher.Response response = responses.get(i).get(
+                    Math.max(0, remaining(deadline)), TimeUnit.MILLISECONDS);
+                bySource.put(source, RateConsensus.normalize(response.data, baseCurrency));
+            } catch (TimeoutException e) {
+                // Whatever has arrived by the deadline is combined
+                lastException = new TimeoutException("Deadline passed waiting for " + source);
+            } catch (ExecutionException e) {
+                lastException = (Exception) e.getCause();
+                output.warn("✗ " + source + " failed: " + e.getCause().getMessage());
             }
-            reader.close();
-            
-            return new JSONObject(response.toString());
-        } else {
-            throw new Exception("HTTP " + responseCode);
+        }
+        
+        if (bySource.isEmpty()) {
+            throw new Exception("All API endpoints failed: " + lastException.getMessage());
+        }
+        return Consensus.INSTANCE.combine(baseCurrency, bySource);
+    }
+    
+    /**
+     * Milliseconds left before a deadline, capped at REQUEST_TIMEOUT
+     */
+    private static long remaining(long deadline) {
+        return Math.min(REQUEST_TIMEOUT, deadline - System.currentTimeMillis());
+    }
+    
+    /**
+     * Publishes every fresh USD table into a memory-mapped file that other
+     * converters on the host can read (see useSharedRates)
+     */
+    public static void publishSharedRates(Path file) throws IOException {
+        snapshotPublisher.subscribe(SharedRateTable.create(file, SharedRateTable.DEFAULT_CAPACITY).forBase("USD"));
+    }
+    
+    /**
+     * Reads rates from a file published by another converter, or stops with null
+     */
+    public static void useSharedRates(Path file) throws IOException {
+        sharedRates = file == null ? null : SharedRateTable.open(file);
+    }
+    
+    /**
+     * Routes upstream fetches through a shared cache sidecar ("host:port"),
+     * or back to direct fetching with null
+     */
+    public static void setSidecar(String address) {
+        RateCacheSidecar.Client previous = sidecar;
+        sidecar = address == null ? null : RateCacheSidecar.Client.parse(address);
+        sidecarDownUntil = 0;
+        if (previous != null) {
+            previous.close();
         }
     }
     
+    /**
+     * Records every conversion in a journal directory, or stops with null;
+     * the previous journal is committed and closed
+     */
+    public static void setJournal(Path directory) throws IOException {
+        ConversionJournal previous = journal;
+        journal = directory == null ? null : ConversionJournal.open(directory);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    public static ConversionJournal getJournal() {
+        return journal;
+    }
+    
+    /**
+     * Whether a code is one of the popular currencies or quoted by any
+     * cached rate document; codes that never fetched stay unknown
+     */
+    static boolean isKnownCurrency(String code) {
+        for (String[] popular : POPULAR_CURRENCIES) {
+            if (popular[0].equals(code)) {
+                return true;
+            }
+        }
+        if (rateCache.containsKey(code)) {
+            return true;
+        }
+        for (CachedRates cached : rateCache.values()) {
+            JSONObject rates = cached.rates.optJSONObject("rates");
+            if (rates != null && rates.has(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Expiry time of the cached rates for a base, or 0 if none are cached
+     */
+    static long cacheExpiresAt(String baseCurrency) {
+        CachedRates cached = rateCache.get(baseCurrency);
+        return cached == null ? 0 : cached.expiresAt;
+    }
+    
+    /**
+     * Cache lifetimes and volatility per base, and upstream fetch counts
+     */
+    public static AdaptiveTtl getAdaptiveTtl() {
+        return adaptiveTtl;
+    }
+    
+    /**
+     * Interactive cache hits and misses since startup
+     */
+    public static long[] getCacheStats() {
+        return new long[] { cacheHits.sum(), cacheMisses.sum() };
+    }
+    
+    /**
+     * Enables or disables multi-source consensus for new fetches
+     */
+    public static void setConsensusMode(boolean enabled) {
+        consensusMode = enabled;
+    }
+    
+    /**
+     * Publishes a new live rate table (see RateTickPipeline)
+     */
+    public static void publishLiveRates(RateTable table) {
+        liveRates = table;
+        snapshotPublisher.publish(table);
+    }
+    
+    /**
+     * Publisher of every fresh snapshot and live tick batch
+     */
+    public static RateSnapshotPublisher getSnapshotPublisher() {
+        return snapshotPublisher;
+    }
+    
+    /**
+     * Returns the current live rate table, or null if no ticks have arrived
+     */
+    public static RateTable getLiveRates() {
+        return liveRates;
+    }
+    
+    /**
+     * Returns the multi-source rate graph
+     */
+    public static CurrencyGraph getRateGraph() {
+        return rateGraph;
+    }
+    
     /**
      * Converts currency with enhanced error handling
      */
     public static double convertCurrency(double amount, String fromCurrency, String toCurrency) 
             throws Exception {
         
-        if (fromCurrency.equalsIgnoreCase(toCurrency)) {
-            return amount;
+        String from = fromCurrency.toUpperCase();
+        String to = toCurrency.toUpperCase();
+        
+        if (from.equals(to)) {
+            return journaled(amount, from, to, 1.0, SAME_CURRENCY, false);
+        }
+        
+        // Streaming ticks take precedence when both legs are quoted
+        double local = localRate(from, to);
+        if (!Double.isNaN(local)) {
+            return journaled(amount, from, to, local, localSource(from, to), false);
+        }
+        
+        JSONObject data;
+        try {
+            data = getExchangeRates(from);
+        } catch (Exception e) {
+            // The active source may not offer this base at all
+            CurrencyGraph.Quote routed = rateGraph.quote(from, to);
+            if (routed == null) {
+                throw e;
+            }
+            return fromGraph(amount, from, to, routed, true).value;
+        }
+        return fromDocument(amount, data, from, to, documentSource(from), false).value;
+    }
+    
+    /**
+     * A conversion the audit journal could not take; no result is given out
+     */
+    public static class JournalException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+        
+        JournalException(ConversionJournal journal) {
+            super("Conversion not journaled: " + (journal.getFailure() != null
+                ? journal.getFailure().getMessage() : "journal closed"));
+        }
+    }
+    
+    /**
+     * Queues a conversion for the audit journal, if one is set
+     * @return The converted amount
+     * @throws JournalException if the journal has failed or is closed, so no
+     *         conversion is handed out unaudited
+     */
+    private static double journaled(double amount, String from, String to, double rate, String source,
+            boolean stale) {
+        double result = amount * rate;
+        ConversionJournal current = journal;
+        if (current != null
+                && current.append(System.currentTimeMillis(), from, to, amount, rate, result, source, stale) < 0) {
+            throw new JournalException(current);
+        }
+        return result;
+    }
+    
+    /**
+     * Which local table localRate answered from
+     */
+    private static String localSource(String from, String to) {
+        return freshLiveRates(from, to) != null ? "live ticks" : "shared rate file";
+    }
+    
+    /**
+     * The streamed table if it quotes both currencies and has ticked within
+     * CACHE_DURATION, so a feed that stopped is not served forever
+     */
+    private static RateTable freshLiveRates(String from, String to) {
+        RateTable live = liveRates;
+        if (live == null || !live.has(from) || !live.has(to)
+                || System.currentTimeMillis() - live.getTimestamp() >= CACHE_DURATION) {
+            return null;
+        }
+        return live;
+    }
+    
+    /**
+     * Endpoint the cached document for a base came from
+     */
+    private static String documentSource(String base) {
+        CachedRates cached = rateCache.get(base);
+        return cached != null && cached.sourceUrl != null ? cached.sourceUrl : "cache";
+    }
+    
+    /**
+     * Rate available without any fetch: streaming ticks first, then the
+     * host's shared rate file, each while it is fresh
+     * @return NaN if neither quotes both currencies
+     */
+    private static double localRate(String fromCurrency, String toCurrency) {
+        RateTable live = freshLiveRates(fromCurrency, toCurrency);
+        if (live != null) {
+            return live.crossRate(fromCurrency, toCurrency);
         }
         
-        JSONObject data = getExchangeRates(fromCurrency.toUpperCase());
+        SharedRateTable shared = sharedRates;
+        if (shared != null) {
+            try {
+                if (System.currentTimeMillis() - shared.getTimestamp() < CACHE_DURATION) {
+                    return shared.crossRate(fromCurrency, toCurrency);
+                }
+            } catch (IllegalStateException e) {
+                // Publisher died mid-update; fetch as usual
+            }
+        }
+        return Double.NaN;
+    }
+    
+    /**
+     * Converts at a fetched document's rate, routed through the graph when
+     * the document does not quote the target
+     * @param stale Whether the document is already past its lifetime
+     */
+    private static ConversionResult fromDocument(double amount, JSONObject data, String from, String to,
+            String source, boolean stale) throws Exception {
         JSONObject rates = data.getJSONObject("rates");
         
-        if (!rates.has(toCurrency.toUpperCase())) {
-            throw new Exception("Currency code not supported: " + toCurrency);
+        if (!rates.has(to)) {
+            CurrencyGraph.Quote routed = rateGraph.quote(from, to);
+            if (routed == null) {
+                throw new Exception("Currency code not supported: " + to);
+            }
+            return fromGraph(amount, from, to, routed, stale);
+        }
+        
+        return converted(to, journaled(amount, from, to, rates.getDouble(to), source, stale), stale);
+    }
+    
+    /**
+     * Converts along a graph route, journaled as the graph's; stale when asked
+     * or when any edge on the route is older than CACHE_DURATION
+     */
+    private static ConversionResult fromGraph(double amount, String from, String to, CurrencyGraph.Quote routed,
+            boolean stale) {
+        boolean aged = stale || routed.isOlderThan(CACHE_DURATION);
+        return converted(to, journaled(amount, from, to, routed.rate, GRAPH, aged), aged);
+    }
+    
+    private static ConversionResult converted(String currency, double value, boolean stale) {
+        return new ConversionResult(currency, value,
+            stale ? ConversionResult.Status.STALE : ConversionResult.Status.OK, null);
+    }
+    
+    /**
+     * Converts within a deadline (System.currentTimeMillis() based)
+     * The deadline is passed down to every sidecar, endpoint and consensus
+     * attempt. If fresh rates cannot be had, because the deadline passed or
+     * the fetch failed, the last cached rates (or a route through the rate
+     * graph) are used and the result is marked STALE; only with nothing known
+     * is it TIMED_OUT or FAILED. Never throws.
+     */
+    public static ConversionResult convertCurrency(double amount, String fromCurrency, String toCurrency,
+            long deadline) {
+        try {
+            return convertWithin(amount, fromCurrency, toCurrency, deadline);
+        } catch (JournalException e) {
+            return new ConversionResult(toCurrency, Double.NaN, ConversionResult.Status.FAILED, e.getMessage());
+        }
+    }
+    
+    private static ConversionResult convertWithin(double amount, String fromCurrency, String toCurrency,
+            long deadline) {
+        String from = fromCurrency.toUpperCase();
+        String to = toCurrency.toUpperCase();
+        
+        if (from.equals(to)) {
+            return new ConversionResult(toCurrency, journaled(amount, from, to, 1.0, SAME_CURRENCY, false),
+                ConversionResult.Status.OK, null);
+        }
+        
+        double local = localRate(from, to);
+        if (!Double.isNaN(local)) {
+            return new ConversionResult(toCurrency, journaled(amount, from, to, local, localSource(from, to), false),
+                ConversionResult.Status.OK, null);
+        }
+        
+        RatePrefetcher.recordAccess(from);
+        CachedRates cached = rateCache.get(from);
+        try {
+            JSONObject data;
+            if (cached != null && !cached.isExpired()) {
+                cacheHits.increment();
+                data = cached.rates;
+            } else {
+                cacheMisses.increment();
+                data = refreshExchangeRates(from, FetchScheduler.Priority.INTERACTIVE, false, deadline);
+            }
+            return fromDocument(amount, data, from, to, documentSource(from), false);
+        } catch (JournalException e) {
+            throw e;
+        } catch (Exception e) {
+            boolean expired = e instanceof TimeoutException || System.currentTimeMillis() >= deadline;
+            
+            // No fresh rates, whatever the reason: the last document, then any
+            // route through the graph, both marked stale
+            if (cached != null) {
+                try {
+                    return fromDocument(amount, cached.rates, from, to,
+                        cached.sourceUrl != null ? cached.sourceUrl : "cache", true);
+                } catch (JournalException journalFailed) {
+                    throw journalFailed;
+                } catch (Exception notQuoted) {
+                    // Fall through to the graph
+                }
+            }
+            CurrencyGraph.Quote routed = rateGraph.quote(from, to);
+            if (routed != null) {
+                return fromGraph(amount, from, to, routed, true);
+            }
+            
+            return new ConversionResult(toCurrency, Double.NaN,
+                expired ? ConversionResult.Status.TIMED_OUT : ConversionResult.Status.FAILED, e.getMessage());
+        }
+    }
+    
+    /**
+     * Converts one amount to several currencies within an overall budget
+     * @return One result per target, in request order; targets left when the
+     *         budget runs out still get the best stale value or TIMED_OUT
+     */
+    public static List<ConversionResult> batchConvert(double amount, String fromCurrency, String[] toCurrencies,
+            long budgetMillis) {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        List<ConversionResult> results = new ArrayList<>();
+        for (String toCurrency : toCurrencies) {
+            results.add(convertCurrency(amount, fromCurrency, toCurrency, deadline));
+        }
+        return results;
+    }
+    
+    /**
+     * Non-blocking getExchangeRates
+     * Completes immediately on a cache hit; on a miss the request goes through
+     * the scheduler and the endpoints are tried in turn without parking a
+     * thread. Concurrent misses for the same base share one fetch.
+     */
+    public static CompletableFuture<JSONObject> getExchangeRatesAsync(String baseCurrency) {
+        RatePrefetcher.recordAccess(baseCurrency);
+        
+        CachedRates cached = rateCache.get(baseCurrency);
+        if (cached != null && !cached.isExpired()) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(cached.rates);
+        }
+        cacheMisses.increment();
+        
+        CompletableFuture<JSONObject> existing = asyncFetches.get(baseCurrency);
+        if (existing != null) {
+            return existing;
+        }
+        
+        CompletableFuture<JSONObject> started = new CompletableFuture<>();
+        existing = asyncFetches.putIfAbsent(baseCurrency, started);
+        if (existing != null) {
+            return existing;
+        }
+        
+        CompletableFuture<JSONObject> fetch;
+        if (sidecar != null || consensusMode) {
+            // These paths are blocking; keep them off the caller's thread
+            fetch = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return refreshExchangeRates(baseCurrency, FetchScheduler.Priority.INTERACTIVE, false);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, AsyncPool.INSTANCE);
+        } else {
+            fetch = fetchAsync(baseCurrency, cached, currentAPIIndex, 0, null);
         }
         
-        double exchangeRate = rates.getDouble(toCurrency.toUpperCase());
-        return amount * exchangeRate;
+        fetch.whenComplete((data, error) -> {
+            asyncFetches.remove(baseCurrency, started);
+            if (error != null) {
+                started.completeExceptionally(unwrap(error));
+            } else {
+                started.complete(data);
+            }
+        });
+        return started;
+    }
+    
+    /**
+     * Tries endpoint (start + attempt) and moves on to the next one on failure
+     */
+    private static CompletableFuture<JSONObject> fetchAsync(String baseCurrency, CachedRates cached,
+            int start, int attempt, Throwable lastError) {
+        if (attempt >= API_ENDPOINTS.length) {
+            CompletableFuture<JSONObject> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new Exception("All API endpoints failed: " + lastError.getMessage()));
+            return failed;
+        }
+        
+        int index = (start + attempt) % API_ENDPOINTS.length;
+        String apiUrl = API_ENDPOINTS[index] + baseCurrency;
+        boolean revalidate = cached != null && apiUrl.equals(cached.sourceUrl);
+        
+        return FetchScheduler.shared().submit(apiUrl,
+                revalidate ? cached.etag : null,
+                revalidate ? cached.lastModified : null,
+                CACHE_DURATION, FetchScheduler.Priority.INTERACTIVE, REQUEST_TIMEOUT)
+            .thenApply(response -> {
+                if (response.isNotModified() && revalidate) {
+                    cached.revalidated(response, adaptiveTtl.revalidated(baseCurrency, cached.sourceUrl, cached.rates,
+                        System.currentTimeMillis(), response.expiresAt, response.headerExpiry));
+                    return cached.rates;
+                }
+                if (response.data == null) {
+                    throw new CompletionException(new Exception("HTTP " + response.status));
+                }
+                store(baseCurrency, new CachedRates(response.data, System.currentTimeMillis(), apiUrl, response));
+                currentAPIIndex = index;
+                return response.data;
+            })
+            .exceptionallyCompose(error ->
+                fetchAsync(baseCurrency, cached, start, attempt + 1, unwrap(error)));
+    }
+    
+    /**
+     * Non-blocking convertCurrency
+     */
+    public static CompletableFuture<Double> convertCurrencyAsync(double amount, String fromCurrency,
+            String toCurrency) {
+        String from = fromCurrency.toUpperCase();
+        String to = toCurrency.toUpperCase();
+        
+        try {
+            if (from.equals(to)) {
+                return CompletableFuture.completedFuture(journaled(amount, from, to, 1.0, SAME_CURRENCY, false));
+            }
+            
+            double local = localRate(from, to);
+            if (!Double.isNaN(local)) {
+                return CompletableFuture.completedFuture(journaled(amount, from, to, local, localSource(from, to), false));
+            }
+        } catch (JournalException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        
+        return getExchangeRatesAsync(from).handle((data, error) -> {
+            try {
+                if (error != null) {
+                    // Same fallback as the blocking version
+                    CurrencyGraph.Quote routed = rateGraph.quote(from, to);
+                    if (routed == null) {
+                        throw unwrap(error);
+                    }
+                    return fromGraph(amount, from, to, routed, true).value;
+                }
+                return fromDocument(amount, data, from, to, documentSource(from), false).value;
+            } catch (Throwable t) {
+                throw new CompletionException(t);
+            }
+        });
+    }
+    
+    /**
+     * Non-blocking batch conversion; all targets share the one rate fetch
+     * @return Target -> converted amount (in request order), NaN for targets
+     *         that could not be converted
+     */
+    public static CompletableFuture<Map<String, Double>> batchConvertAsync(double amount, String fromCurrency,
+            String[] toCurrencies) {
+        List<CompletableFuture<Double>> conversions = new ArrayList<>();
+        for (String toCurrency : toCurrencies) {
+            conversions.add(convertCurrencyAsync(amount, fromCurrency, toCurrency)
+                .exceptionally(error -> Double.NaN));
+        }
+        
+        return CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, Double> results = new LinkedHashMap<>();
+            for (int i = 0; i < toCurrencies.length; i++) {
+                results.put(toCurrencies[i], conversions.get(i).join());
+            }
+            return results;
+        });
+    }
+    
+    /**
+     * Non-blocking getAllCurrencies
+     */
+    public static CompletableFuture<List<String>> getAllCurrenciesAsync() {
+        return getExchangeRatesAsync("USD").thenApply(AdvancedAPICurrencyConverter::currencyList);
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
     }
     
     /**
      * Gets all available currencies
      */
     public static List<String> getAllCurrencies() throws Exception {
-        JSONObject data = getExchangeRates("USD");
+        return currencyList(getExchangeRates("USD"));
+    }
+    
+    private static List<String> currencyList(JSONObject data) {
         JSONObject rates = data.getJSONObject("rates");
         
         List<String> currencies = new ArrayList<>();
@@ -153,30 +1002,12 @@ public class AdvancedAPICurrencyConverter {
      * Displays popular currencies with their names
      */
     public static void displayPopularCurrencies() {
-        System.out.println("\n===== Popular Currencies =====");
-        String[][] popular = {
-            {"USD", "US Dollar"},
-            {"EUR", "Euro"},
-            {"GBP", "British Pound"},
-            {"JPY", "Japanese Yen"},
-            {"CHF", "Swiss Franc"},
-            {"CAD", "Canadian Dollar"},
-            {"AUD", "Australian Dollar"},
-            {"CNY", "Chinese Yuan"},
-            {"INR", "Indian Rupee"},
-            {"KRW", "South Korean Won"},
-            {"BRL", "Brazilian Real"},
-            {"MXN", "Mexican Peso"},
-            {"ZAR", "South African Rand"},
-            {"SGD", "Singapore Dollar"},
-            {"HKD", "Hong Kong Dollar"}
-        };
-        
-        for (String[] curr : popular) {
-            System.out.printf("%-5s - %s%n", curr[0], curr[1]);
-        }
-        System.out.println("==============================");
-        System.out.println("(150+ currencies supported)");
+        output.println("\n===== Popular Currencies =====");
+        for (String[] curr : POPULAR_CURRENCIES) {
+            output.line().padded(curr[0], 5).append(" - ").append(curr[1]).println();
+        }
+        output.println("==============================");
+        output.println("(150+ currencies supported)");
     }
     
     /**
@@ -185,16 +1016,18 @@ public class AdvancedAPICurrencyConverter {
     public static void batchConvert(double amount, String fromCurrency, String[] toCurrencies) 
             throws Exception {
         
-        System.out.println("\n===== Batch Conversion =====");
-        System.out.printf("Converting %.2f %s to:%n", amount, fromCurrency);
-        System.out.println("============================");
+        output.println("\n===== Batch Conversion =====");
+        output.line().append("Converting ").fixed(amount, 2).append(' ').append(fromCurrency).append(" to:").println();
+        output.println("============================");
         
-        for (String toCurrency : toCurrencies) {
-            try {
-                double result = convertCurrency(amount, fromCurrency, toCurrency);
-                System.out.printf("%-5s = %12.2f%n", toCurrency, result);
-            } catch (Exception e) {
-                System.out.printf("%-5s = Error: %s%n", toCurrency, e.getMessage());
+        for (ConversionResult result : batchConvert(amount, fromCurrency, toCurrencies, BATCH_BUDGET)) {
+            ConsoleOutput.Line line = output.line().padded(result.currency, 5).append(" = ");
+            if (result.status == ConversionResult.Status.OK) {
+                line.fixed(result.value, 2, 12).println();
+            } else if (result.status == ConversionResult.Status.STALE) {
+                line.fixed(result.value, 2, 12).append(" (stale)").println();
+            } else {
+                line.append("Error: ").append(String.valueOf(result.error)).println();
             }
         }
     }
@@ -208,41 +1041,199 @@ public class AdvancedAPICurrencyConverter {
         double rate = convertCurrency(1.0, fromCurrency, toCurrency);
         double reverseRate = convertCurrency(1.0, toCurrency, fromCurrency);
         
-        System.out.println("\n===== Exchange Rate Info =====");
-        System.out.printf("1 %s = %.6f %s%n", fromCurrency, rate, toCurrency);
-        System.out.printf("1 %s = %.6f %s%n", toCurrency, reverseRate, fromCurrency);
-        System.out.println("==============================");
+        output.println("\n===== Exchange Rate Info =====");
+        output.line().append("1 ").append(fromCurrency).append(" = ").fixed(rate, 6).append(' ').append(toCurrency).println();
+        output.line().append("1 ").append(toCurrency).append(" = ").fixed(reverseRate, 6).append(' ').append(fromCurrency).println();
+        output.println("==============================");
+    }
+    
+    /**
+     * Non-interactive mode: each input line is "AMOUNT FROM TO[,TO...]" and
+     * produces one result line per target. Results go through the buffered
+     * output, so long runs are not bound by console formatting.
+     * @return false if any line was malformed or any target failed or timed out
+     */
+    public static boolean runBatch(BufferedReader input) throws IOException {
+        String text;
+        int lineNumber = 0;
+        boolean allConverted = true;
+        while ((text = input.readLine()) != null) {
+            lineNumber++;
+            text = text.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            
+            String[] parts = text.split("\\s+");
+            double amount;
+            try {
+                amount = money.parseDouble(parts[0]);
+            } catch (NumberFormatException e) {
+                output.error("Line " + lineNumber + ": bad amount '" + parts[0] + "'");
+                allConverted = false;
+                continue;
+            }
+            if (parts.length < 3) {
+                output.error("Line " + lineNumber + ": expected AMOUNT FROM TO[,TO...]");
+                allConverted = false;
+                continue;
+            }
+            
+            String fromCurrency = parts[1].toUpperCase();
+            String[] toCurrencies = parts[2].toUpperCase().split(",");
+            for (ConversionResult result : batchConvert(amount, fromCurrency, toCurrencies, BATCH_BUDGET)) {
+                ConsoleOutput.Line line = output.line().money(amount, fromCurrency).append(" = ");
+                if (result.hasValue()) {
+                    line.money(result.value, result.currency);
+                    if (result.status == ConversionResult.Status.STALE) {
+                        line.append(" (stale)");
+                    }
+                } else {
+                    line.append(result.currency).append(" error: ").append(String.valueOf(result.error));
+                    allConverted = false;
+                }
+                line.println();
+            }
+        }
+        output.flush();
+        return allConverted;
     }
     
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--consensus")) {
+            setConsensusMode(true);
+        }
+        
+        int levelArg = Arrays.asList(args).indexOf("--log-level");
+        if (levelArg >= 0 && levelArg + 1 < args.length) {
+            try {
+                output.setLevel(ConsoleOutput.Level.valueOf(args[levelArg + 1].toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                output.warn("Unknown log level " + args[levelArg + 1] + ", keeping " + output.getLevel());
+            }
+        }
+        
+        int sidecarArg = Arrays.asList(args).indexOf("--sidecar");
+        if (sidecarArg >= 0 && sidecarArg + 1 < args.length) {
+            setSidecar(args[sidecarArg + 1]);
+        }
+        
+        try {
+            int publishArg = Arrays.asList(args).indexOf("--publish-rates");
+            if (publishArg >= 0 && publishArg + 1 < args.length) {
+                publishSharedRates(Paths.get(args[publishArg + 1]));
+            }
+            int sharedArg = Arrays.asList(args).indexOf("--shared-rates");
+            if (sharedArg >= 0 && sharedArg + 1 < args.length) {
+                useSharedRates(Paths.get(args[sharedArg + 1]));
+            }
+        } catch (IOException e) {
+            output.warn("✗ Shared rate file unavailable: " + e.getMessage());
+        }
+        
+        int journalArg = Arrays.asList(args).indexOf("--journal");
+        if (journalArg >= 0 && journalArg + 1 < args.length) {
+            try {
+                setJournal(Paths.get(args[journalArg + 1]));
+                // Commit whatever is queued however the JVM exits
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    ConversionJournal current = journal;
+                    if (current != null) {
+                        current.close();
+                    }
+                }, "journal-shutdown"));
+            } catch (IOException e) {
+                output.error("✗ Cannot open conversion journal: " + e.getMessage());
+                output.flush();
+                System.exit(1);
+            }
+        }
+        
+        int convertArg = Arrays.asList(args).indexOf("--convert");
+        if (convertArg >= 0) {
+            // --convert AMOUNT FROM TO[,TO...]: one conversion for scripts, no banner or prefetch
+            StringBuilder line = new StringBuilder();
+            int operands = 0;
+            for (int i = convertArg + 1; i < args.length && !args[i].startsWith("--"); i++) {
+                line.append(args[i]).append(' ');
+                operands++;
+            }
+            if (operands < 3) {
+                output.error("Usage: --convert AMOUNT FROM TO[,TO...]");
+                output.flush();
+                System.exit(1);
+            }
+            boolean converted;
+            try {
+                converted = runBatch(new BufferedReader(new StringReader(line.toString())));
+            } catch (IOException e) {
+                output.error("✗ " + e.getMessage());
+                output.flush();
+                converted = false;
+            }
+            if (!converted) {
+                System.exit(1);
+            }
+            return;
+        }
+        
+        int batchArg = Arrays.asList(args).indexOf("--batch");
+        if (batchArg >= 0) {
+            // --batch FILE, or --batch alone to read standard input
+            boolean fromFile = batchArg + 1 < args.length && !args[batchArg + 1].startsWith("--");
+            boolean converted;
+            try (BufferedReader input = fromFile
+                    ? Files.newBufferedReader(Paths.get(args[batchArg + 1]))
+                    : new BufferedReader(new InputStreamReader(System.in))) {
+                converted = runBatch(input);
+            } catch (IOException e) {
+                output.error("✗ Cannot read batch input: " + e.getMessage());
+                output.flush();
+                converted = false;
+            }
+            if (!converted) {
+                System.exit(1);
+            }
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         
-        System.out.println("============================================");
-        System.out.println("  ADVANCED CURRENCY CONVERTER (API-Based)");
-        System.out.println("============================================");
-        System.out.println("  ✓ 150+ currencies supported");
-        System.out.println("  ✓ Real-time exchange rates");
-        System.out.println("  ✓ Cached for performance");
-        System.out.println("  ✓ Multiple API fallback");
-        System.out.println("============================================\n");
+        // Warm the popular bases in the background and keep them fresh
+        List<String> popularCodes = new ArrayList<>();
+        for (String[] curr : POPULAR_CURRENCIES) {
+            popularCodes.add(curr[0]);
+        }
+        RatePrefetcher.start(popularCodes);
+        
+        output.println("============================================");
+        output.println("  ADVANCED CURRENCY CONVERTER (API-Based)");
+        output.println("============================================");
+        output.println("  ✓ 150+ currencies supported");
+        output.println("  ✓ Real-time exchange rates");
+        output.println("  ✓ Cached for performance");
+        output.println("  ✓ Multiple API fallback");
+        if (consensusMode) {
+            output.println("  ✓ Multi-source consensus mode");
+        }
+        output.println("============================================\n");
         
         boolean continueUsing = true;
         
         while (continueUsing) {
-            System.out.println("\nSelect operation:");
-            System.out.println("1. Single conversion");
-            System.out.println("2. Batch conversion (to multiple currencies)");
-            System.out.println("3. View exchange rate info");
-            System.out.println("4. List all available currencies");
-            System.out.println("5. View popular currencies");
-            System.out.println("6. Exit");
-            System.out.print("\nYour choice (1-6): ");
+            output.println("\nSelect operation:");
+            output.println("1. Single conversion");
+            output.println("2. Batch conversion (to multiple currencies)");
+            output.println("3. View exchange rate info");
+            output.println("4. List all available currencies");
+            output.println("5. View popular currencies");
+            output.println("6. Exit");
             
             int choice = 0;
             try {
-                choice = Integer.parseInt(scanner.nextLine());
+                choice = Integer.parseInt(prompt(scanner, "\nYour choice (1-6): "));
             } catch (NumberFormatException e) {
-                System.out.println("Invalid input. Please enter a number 1-6.");
+                output.println("Invalid input. Please enter a number 1-6.");
                 continue;
             }
             
@@ -273,93 +1264,102 @@ public class AdvancedAPICurrencyConverter {
                         break;
                         
                     default:
-                        System.out.println("Invalid choice. Please select 1-6.");
+                        output.println("Invalid choice. Please select 1-6.");
                 }
                 
             } catch (Exception e) {
-                System.out.println("\n❌ Error: " + e.getMessage());
+                output.println("\n❌ Error: " + e.getMessage());
             }
             
-            System.out.print("\nContinue using the converter? (yes/no): ");
-            String response = scanner.nextLine().trim().toLowerCase();
+            String response = prompt(scanner, "\nContinue using the converter? (yes/no): ").trim().toLowerCase();
             continueUsing = response.equals("yes") || response.equals("y");
         }
         
-        System.out.println("\nThank you for using Advanced Currency Converter!");
+        long[] stats = getCacheStats();
+        if (stats[0] + stats[1] > 0) {
+            output.line().append("\nCache hit rate: ").fixed(100.0 * stats[0] / (stats[0] + stats[1]), 1)
+                .append("% (").append(stats[0]).append(" of ").append(stats[0] + stats[1]).append(" lookups)").println();
+        }
+        long[] fetches = adaptiveTtl.getFetchCounts();
+        if (fetches[0] + fetches[1] > 0) {
+            output.line().append("Upstream refreshes: ").append(fetches[0]).append(" with new rates, ")
+                .append(fetches[1]).append(" unchanged").println();
+        }
+        
+        output.println("\nThank you for using Advanced Currency Converter!");
+        output.flush();
         scanner.close();
     }
     
+    /**
+     * Writes out everything queued, then asks for a line of input
+     */
+    private static String prompt(Scanner scanner, String text) {
+        output.flush();
+        System.out.print(text);
+        return scanner.nextLine();
+    }
+    
     private static void performSingleConversion(Scanner scanner) throws Exception {
         displayPopularCurrencies();
         
-        System.out.print("\nEnter source currency (e.g., USD): ");
-        String fromCurrency = scanner.nextLine().toUpperCase().trim();
+        String fromCurrency = prompt(scanner, "\nEnter source currency (e.g., USD): ").toUpperCase().trim();
+        String toCurrency = prompt(scanner, "Enter target currency (e.g., EUR): ").toUpperCase().trim();
+        double amount = money.parseDouble(prompt(scanner, "Enter amount: "));
         
-        System.out.print("Enter target currency (e.g., EUR): ");
-        String toCurrency = scanner.nextLine().toUpperCase().trim();
-        
-        System.out.print("Enter amount: ");
-        double amount = Double.parseDouble(scanner.nextLine());
-        
-        System.out.println("\nFetching exchange rates...");
+        output.println("\nFetching exchange rates...");
         double result = convertCurrency(amount, fromCurrency, toCurrency);
         double rate = result / amount;
         
-        System.out.println("\n============================================");
-        System.out.printf("%.2f %s = %.2f %s%n", amount, fromCurrency, result, toCurrency);
-        System.out.printf("Exchange Rate: 1 %s = %.6f %s%n", fromCurrency, rate, toCurrency);
-        System.out.println("============================================");
+        output.println("\n============================================");
+        output.line().money(amount, fromCurrency).append(" = ").money(result, toCurrency).println();
+        output.line().append("Exchange Rate: 1 ").append(fromCurrency).append(" = ")
+            .fixed(rate, 6).append(' ').append(toCurrency).println();
+        output.println("============================================");
     }
     
     private static void performBatchConversion(Scanner scanner) throws Exception {
         displayPopularCurrencies();
         
-        System.out.print("\nEnter source currency (e.g., USD): ");
-        String fromCurrency = scanner.nextLine().toUpperCase().trim();
-        
-        System.out.print("Enter amount: ");
-        double amount = Double.parseDouble(scanner.nextLine());
-        
-        System.out.print("Enter target currencies separated by commas (e.g., EUR,GBP,JPY): ");
-        String[] toCurrencies = scanner.nextLine().toUpperCase().split(",");
+        String fromCurrency = prompt(scanner, "\nEnter source currency (e.g., USD): ").toUpperCase().trim();
+        double amount = money.parseDouble(prompt(scanner, "Enter amount: "));
+        String[] toCurrencies = prompt(scanner, "Enter target currencies separated by commas (e.g., EUR,GBP,JPY): ")
+            .toUpperCase().split(",");
         
         for (int i = 0; i < toCurrencies.length; i++) {
             toCurrencies[i] = toCurrencies[i].trim();
         }
         
-        System.out.println("\nFetching exchange rates...");
+        output.println("\nFetching exchange rates...");
         batchConvert(amount, fromCurrency, toCurrencies);
     }
     
     private static void viewExchangeRateInfo(Scanner scanner) throws Exception {
         displayPopularCurrencies();
         
-        System.out.print("\nEnter first currency (e.g., USD): ");
-        String currency1 = scanner.nextLine().toUpperCase().trim();
-        
-        System.out.print("Enter second currency (e.g., EUR): ");
-        String currency2 = scanner.nextLine().toUpperCase().trim();
+        String currency1 = prompt(scanner, "\nEnter first currency (e.g., USD): ").toUpperCase().trim();
+        String currency2 = prompt(scanner, "Enter second currency (e.g., EUR): ").toUpperCase().trim();
         
-        System.out.println("\nFetching exchange rates...");
+        output.println("\nFetching exchange rates...");
         displayExchangeRate(currency1, currency2);
     }
     
     private static void listAllCurrencies() throws Exception {
-        System.out.println("\nFetching all available currencies...");
+        output.println("\nFetching all available currencies...");
         List<String> currencies = getAllCurrencies();
         
-        System.out.println("\n===== All Available Currencies =====");
-        System.out.println("(" + currencies.size() + " currencies)");
-        System.out.println("====================================");
+        output.println("\n===== All Available Currencies =====");
+        output.println("(" + currencies.size() + " currencies)");
+        output.println("====================================");
         
-        int count = 0;
-        for (String currency : currencies) {
-            System.out.print(String.format("%-5s", currency));
-            count++;
-            if (count % 10 == 0) {
-                System.out.println();
+        // Ten codes per row
+        for (int i = 0; i < currencies.size(); i += 10) {
+            ConsoleOutput.Line line = output.line();
+            for (int j = i; j < Math.min(i + 10, currencies.size()); j++) {
+                line.padded(currencies.get(j), 5);
             }
+            line.println();
         }
-        System.out.println("\n====================================");
+        output.println("====================================");
     }
 }
\ No newline at end of file
@@ -0,0 +1,514 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary conversion protocol for latency-critical internal callers
+ * Fixed-size frames, fixed-point amounts and no text parsing. A single NIO
+ * selector thread serves every connection and converts straight from the
+ * in-memory RateTable (fed by the converter's snapshot publisher); it never
+ * touches the network upstream, so a request never waits on a fetch.
+ *
+ * Clients may pipeline: send any number of frames without waiting, and
+ * match responses by request id. Responses come back in request order.
+ *
+ * Frames (big-endian, amounts in millionths of a unit):
+ *   CONVERT request (24): op='C'(1) from(3) to(3) 0(1) requestId(8) amount(8)
+ *   BATCH request:        op='B'(1) 0(1) count(2) 0(4) then count CONVERT frames
+ *   response (24):        status(1) 0(7) requestId(8) result(8)
+ *   BATCH response:       op='B'(1) 0(1) count(2) 0(4) then count responses
+ * Statuses are small numbers, so a batch header never looks like a response.
+ *
+ * With a conversion journal set (--journal DIR), every served conversion
+ * is journaled like the converter's own, and a journal failure answers
+ * NOT_JOURNALED instead of an unaudited result.
+ *
+ * Run: java -cp ".;json-20230227.jar" BinaryConversionServer --port 9300 [--journal DIR]
+ */
+public class BinaryConversionServer implements Flow.Subscriber<RateTable> {
+    
+    static final byte OP_CONVERT = 'C';
+    static final byte OP_BATCH = 'B';
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_UNKNOWN_CURRENCY = 1;
+    static final byte STATUS_NO_RATES = 2;
+    static final byte STATUS_OVERFLOW = 3;
+    static final byte STATUS_NOT_JOURNALED = 4;
+    static final String JOURNAL_SOURCE = "binary server";
+    
+    static final int FRAME = 24;
+    static final int BATCH_HEADER = 8;
+    static final int MAX_BATCH = 1024;
+    static final double SCALE = 1_000_000.0;
+    public static final int DEFAULT_PORT = 9300;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final int LETTERS = 26 * 26 * 26;
+    
+    /**
+     * A table plus a direct slot index for A-Z codes, so the hot path
+     * needs no String or hash lookup
+     */
+    private static final class IndexedRates {
+        final RateTable table;
+        final int[] slots = new int[LETTERS];
+        
+        IndexedRates(RateTable table) {
+            this.table = table;
+            Arrays.fill(slots, -1);
+            for (int slot = 0; slot < table.size(); slot++) {
+                String code = table.codeAt(slot);
+                if (code.length() == 3) {
+                    int letters = letterIndex(pack(code));
+                    if (letters >= 0) {
+                        slots[letters] = slot;
+                    }
+                }
+            }
+        }
+    }
+    
+    private final String base;
+    private volatile IndexedRates rates;
+    private final AtomicLong served = new AtomicLong();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    
+    /**
+     * @param base Only snapshots quoted against this base are served
+     */
+    public BinaryConversionServer(String base) {
+        this.base = base;
+    }
+    
+    /**
+     * Replaces the table conversions are served from
+     */
+    public void setRates(RateTable table) {
+        rates = new IndexedRates(table);
+    }
+    
+    public long getServedCount() {
+        return served.get();
+    }
+    
+    /**
+     * Binds and starts the selector thread
+     * @return The bound port (useful with port 0)
+     */
+    public int start(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        
+        Thread loop = new Thread(this::selectLoop, "binary-conversion-server");
+        loop.setDaemon(true);
+        loop.start();
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+    
+    public void stop() throws IOException {
+        serverChannel.close();
+        selector.close();
+    }
+    
+    /**
+     * Per-connection buffers
+     */
+    private static final class Connection {
+        final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    
+    private void selectLoop() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            service(key);
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Selector closed by stop()
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+    
+    private void service(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        
+        if (key.isReadable() && channel.read(connection.in) < 0) {
+            throw new IOException("Peer closed");
+        }
+        
+        connection.in.flip();
+        process(connection.in, connection.out);
+        connection.in.compact();
+        
+        connection.out.flip();
+        channel.write(connection.out);
+        connection.out.compact();
+        
+        // Keep writing while responses are pending; stop reading while the
+        // output buffer is too full to take another batch (backpressure)
+        int interest = 0;
+        if (connection.out.position() > 0) {
+            interest |= SelectionKey.OP_WRITE;
+        }
+        if (connection.out.remaining() >= BATCH_HEADER + MAX_BATCH * FRAME || connection.in.position() == 0) {
+            interest |= SelectionKey.OP_READ;
+        }
+        key.interestOps(interest == 0 ? SelectionKey.OP_WRITE : interest);
+    }
+    
+    /**
+     * Answers every complete frame that fits in the output buffer
+     */
+    private void process(ByteBuffer in, ByteBuffer out) throws IOException {
+        IndexedRates table = rates;
+        while (in.remaining() >= 1) {
+            byte op = in.get(in.position());
+            if (op == OP_CONVERT) {
+                if (in.remaining() < FRAME || out.remaining() < FRAME) {
+                    return;
+                }
+                convert(table, in, out);
+            } else if (op == OP_BATCH) {
+                if (in.remaining() < BATCH_HEADER) {
+                    return;
+                }
+                int count = in.getShort(in.position() + 2) & 0xFFFF;
+                if (count > MAX_BATCH) {
+                    throw new IOException("Batch of " + count + " exceeds " + MAX_BATCH);
+                }
+                int size = BATCH_HEADER + count * FRAME;
+                if (in.remaining() < size || out.remaining() < size) {
+                    return;
+                }
+                out.put(in.get()).put(in.get()).putShort(in.getShort()).putInt(in.getInt());
+                for (int i = 0; i < count; i++) {
+                    if (in.get(in.position()) != OP_CONVERT) {
+                        throw new IOException("Batch holds op " + in.get(in.position()));
+                    }
+                    convert(table, in, out);
+                }
+            } else {
+                throw new IOException("Unknown op " + op);
+            }
+        }
+    }
+    
+    private void convert(IndexedRates table, ByteBuffer in, ByteBuffer out) {
+        int header = in.getInt();   // op + from
+        int to = in.getInt();       // to + padding
+        long requestId = in.getLong();
+        long amount = in.getLong();
+        
+        byte status;
+        long result = 0;
+        if (table == null) {
+            status = STATUS_NO_RATES;
+        } else {
+            int fromLetters = letterIndex(header & 0xFFFFFF);
+            int toLetters = letterIndex(to >>> 8);
+            int fromSlot = fromLetters < 0 ? -1 : table.slots[fromLetters];
+            int toSlot = toLetters < 0 ? -1 : table.slots[toLetters];
+            if (fromSlot < 0 || toSlot < 0) {
+                status = STATUS_UNKNOWN_CURRENCY;
+            } else {
+                double value = amount * (table.table.rateAt(toSlot) / table.table.rateAt(fromSlot));
+                if (Math.abs(value) >= Long.MAX_VALUE) {
+                    status = STATUS_OVERFLOW;
+                } else if (!journaled(table.table, fromSlot, toSlot, amount, value)) {
+                    status = STATUS_NOT_JOURNALED;
+                } else {
+                    status = STATUS_OK;
+                    result = Math.round(value);
+                }
+            }
+        }
+        
+        out.put(status).put((byte) 0).putShort((short) 0).putInt(0);
+        out.putLong(requestId);
+        out.putLong(result);
+        served.incrementAndGet();
+    }
+    
+    /**
+     * Records a served conversion in the converter's journal, if one is set
+     * @return false if the journal has failed or is closed
+     */
+    private static boolean journaled(RateTable table, int fromSlot, int toSlot, long amount, double value) {
+        ConversionJournal journal = AdvancedAPICurrencyConverter.getJournal();
+        return journal == null || journal.append(System.currentTimeMillis(),
+            table.codeAt(fromSlot), table.codeAt(toSlot), amount / SCALE,
+            table.rateAt(toSlot) / table.rateAt(fromSlot), value / SCALE, JOURNAL_SOURCE, false) >= 0;
+    }
+    
+    /**
+     * Three ASCII letters packed into the low 24 bits of an int
+     */
+    static int pack(String code) {
+        return ((code.charAt(0) & 0xFF) << 16) | ((code.charAt(1) & 0xFF) << 8) | (code.charAt(2) & 0xFF);
+    }
+    
+    /**
+     * Dense index of a packed A-Z code, or -1 for anything else
+     */
+    static int letterIndex(int packed) {
+        int a = ((packed >> 16) & 0xFF) - 'A';
+        int b = ((packed >> 8) & 0xFF) - 'A';
+        int c = (packed & 0xFF) - 'A';
+        if ((a | b | c) < 0 || a >= 26 || b >= 26 || c >= 26) {
+            return -1;
+        }
+        return (a * 26 + b) * 26 + c;
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(RateTable table) {
+        if (base.equals(table.getBase())) {
+            setRates(table);
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Binary server stopped receiving rates: " + throwable.getMessage());
+    }
+    
+    @Override
+    public void onComplete() {
+    }
+    
+    /**
+     * Failed conversion reported by the server
+     */
+    public static class ConversionException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        
+        ConversionException(int status) {
+            super(status == STATUS_UNKNOWN_CURRENCY ? "Currency code not supported"
+                : status == STATUS_NO_RATES ? "No rates loaded"
+                : status == STATUS_OVERFLOW ? "Amount out of range"
+                : status == STATUS_NOT_JOURNALED ? "Conversion could not be journaled"
+                : "Status " + status);
+            this.status = status;
+        }
+    }
+    
+    /**
+     * Pipelining client: requests are written without waiting and a reader
+     * thread completes each future when its response arrives
+     */
+    public static class Client implements AutoCloseable {
+        private final SocketChannel channel;
+        private final ByteBuffer frame = ByteBuffer.allocateDirect(BATCH_HEADER + MAX_BATCH * FRAME);
+        private final Map<Long, CompletableFuture<Double>> pending = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+        
+        public Client(String host, int port) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            
+            Thread reader = new Thread(this::readLoop, "binary-conversion-client");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        
+        /**
+         * Sends one conversion; does not wait for earlier ones
+         */
+        public CompletableFuture<Double> convertAsync(double amount, String fromCurrency, String toCurrency)
+                throws IOException {
+            CompletableFuture<Double> future = new CompletableFuture<>();
+            synchronized (frame) {
+                frame.clear();
+                putRequest(amount, fromCurrency, toCurrency, future);
+                frame.flip();
+                write();
+            }
+            return future;
+        }
+        
+        /**
+         * Sends up to MAX_BATCH conversions of one amount in a single frame
+         */
+        public CompletableFuture<Double>[] convertBatchAsync(double amount, String fromCurrency,
+                String[] toCurrencies) throws IOException {
+            if (toCurrencies.length > MAX_BATCH) {
+                throw new IllegalArgumentException("At most " + MAX_BATCH + " conversions per batch");
+            }
+            
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            CompletableFuture<Double>[] futures = new CompletableFuture[toCurrencies.length];
+            synchronized (frame) {
+                frame.clear();
+                frame.put(OP_BATCH).put((byte) 0).putShort((short) toCurrencies.length).putInt(0);
+                for (int i = 0; i < toCurrencies.length; i++) {
+                    futures[i] = new CompletableFuture<>();
+                    putRequest(amount, fromCurrency, toCurrencies[i], futures[i]);
+                }
+                frame.flip();
+                write();
+            }
+            return futures;
+        }
+        
+        public double convert(double amount, String fromCurrency, String toCurrency) throws Exception {
+            try {
+                return convertAsync(amount, fromCurrency, toCurrency).get();
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+        
+        private void putRequest(double amount, String fromCurrency, String toCurrency,
+                CompletableFuture<Double> future) {
+            long id = nextId.incrementAndGet();
+            pending.put(id, future);
+            frame.putInt((OP_CONVERT << 24) | pack(fromCurrency.toUpperCase()));
+            frame.putInt(pack(toCurrency.toUpperCase()) << 8);
+            frame.putLong(id);
+            frame.putLong(Math.round(amount * SCALE));
+        }
+        
+        private void write() throws IOException {
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (IOException e) {
+                failAll(e);
+                throw e;
+            }
+        }
+        
+        private void readLoop() {
+            ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try {
+                while (channel.read(in) >= 0) {
+                    in.flip();
+                    while (in.remaining() >= FRAME || (in.remaining() >= BATCH_HEADER && in.get(in.position()) == OP_BATCH)) {
+                        if (in.get(in.position()) == OP_BATCH) {
+                            in.position(in.position() + BATCH_HEADER);
+                            continue;
+                        }
+                        byte status = in.get();
+                        in.position(in.position() + 7);
+                        long id = in.getLong();
+                        long result = in.getLong();
+                        
+                        CompletableFuture<Double> future = pending.remove(id);
+                        if (future == null) {
+                            continue;
+                        }
+                        if (status == STATUS_OK) {
+                            future.complete(result / SCALE);
+                        } else {
+                            future.completeExceptionally(new ConversionException(status));
+                        }
+                    }
+                    in.compact();
+                }
+                failAll(new IOException("Server closed the connection"));
+            } catch (IOException e) {
+                failAll(e);
+            }
+        }
+        
+        private void failAll(IOException e) {
+            for (Long id : pending.keySet()) {
+                CompletableFuture<Double> future = pending.remove(id);
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--journal")) {
+                AdvancedAPICurrencyConverter.setJournal(Paths.get(args[i + 1]));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    ConversionJournal journal = AdvancedAPICurrencyConverter.getJournal();
+                    if (journal != null) {
+                        journal.close();
+                    }
+                }, "journal-shutdown"));
+            }
+        }
+        
+        String base = "USD";
+        BinaryConversionServer server = new BinaryConversionServer(base);
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(server);
+        try {
+            server.setRates(RateTable.fromJSON(AdvancedAPICurrencyConverter.getExchangeRates(base)));
+        } catch (Exception e) {
+            System.out.println("No rates yet, answering NO_RATES until a fetch succeeds: " + e.getMessage());
+        }
+        
+        // The prefetcher keeps the base fresh; every refresh reaches the server through the publisher
+        RatePrefetcher.start(Collections.singletonList(base));
+        
+        int bound = server.start(port);
+        System.out.println("Binary conversion server listening on 127.0.0.1:" + bound);
+        Thread.currentThread().join();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Buffered, asynchronous console output and logging
+ * Callers format into a reusable per-thread Line (fixed-point numbers are
+ * written digit by digit, with no format string to parse) and hand the text
+ * to a shared buffer; a background writer swaps that buffer out and prints
+ * everything accumulated since the last swap in one call, flushing once
+ * per batch instead of once per line. Producers only wait if the writer
+ * falls far behind.
+ *
+ * Log calls below the current level return after one volatile read, so
+ * debug messages such as cache hits cost nothing when switched off. WARN
+ * and ERROR messages can go to a second sink, keeping them out of results
+ * that scripts read.
+ * Interactive code calls flush() before prompting so output stays ordered.
+ */
+public class ConsoleOutput {
+    
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+    
+    private static final int MAX_PENDING = 1 << 20;   // chars buffered before producers wait
+    private static final long[] UNITS = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000 };
+    private static final char[] SPACES = "                                        ".toCharArray();
+    
+    private static final ConsoleOutput shared = new ConsoleOutput(System.out, System.err);
+    
+    private final PrintStream sink;
+    private final ConsoleOutput diagnostics; // WARN and ERROR messages; this if there is no second sink
+    private final Object lock = new Object();
+    private final ThreadLocal<Line> lines = ThreadLocal.withInitial(Line::new);
+    private volatile Level level = Level.INFO;
+    
+    // Guarded by lock
+    private StringBuilder pending = new StringBuilder(8192);
+    private StringBuilder draining = new StringBuilder(8192);
+    private long submitted;
+    private long written;
+    private boolean writerIdle;
+    private Thread writer;
+    
+    public ConsoleOutput(PrintStream sink) {
+        this.sink = sink;
+        this.diagnostics = this;
+    }
+    
+    /**
+     * Output with WARN and ERROR messages written to their own sink
+     */
+    public ConsoleOutput(PrintStream sink, PrintStream diagnosticSink) {
+        this.sink = sink;
+        this.diagnostics = new ConsoleOutput(diagnosticSink);
+    }
+    
+    /**
+     * Output to System.out, with warnings and errors on System.err, shared
+     * by the converters
+     */
+    public static ConsoleOutput shared() {
+        return shared;
+    }
+    
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+    
+    public Level getLevel() {
+        return level;
+    }
+    
+    public boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+    
+    public void log(Level messageLevel, String message) {
+        if (isEnabled(messageLevel)) {
+            ConsoleOutput target = messageLevel.compareTo(Level.WARN) >= 0 ? diagnostics : this;
+            target.line().append(message).println();
+        }
+    }
+    
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+    
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+    
+    public void warn(String message) {
+        log(Level.WARN, message);
+    }
+    
+    public void error(String message) {
+        log(Level.ERROR, message);
+    }
+    
+    /**
+     * The calling thread's line buffer, emptied; finish it with println()
+     * before asking for another
+     */
+    public Line line() {
+        Line line = lines.get();
+        line.text.setLength(0);
+        return line;
+    }
+    
+    public void println(CharSequence text) {
+        line().append(text).println();
+    }
+    
+    /**
+     * Waits until everything submitted so far has been written and flushed,
+     * warnings and errors included
+     */
+    public void flush() {
+        if (diagnostics != this) {
+            diagnostics.flush();
+        }
+        synchronized (lock) {
+            long target = submitted;
+            try {
+                while (written < target) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void submit(StringBuilder text) {
+        synchronized (lock) {
+            if (writer == null) {
+                startWriter();
+            }
+            try {
+                while (pending.length() > MAX_PENDING) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pending.append(text);
+            submitted++;
+            if (writerIdle) {
+                writerIdle = false;
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    private void startWriter() {
+        writer = new Thread(this::drain, "console-output");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "console-output-flush"));
+    }
+    
+    private void drain() {
+        while (true) {
+            StringBuilder batch;
+            long upTo;
+            synchronized (lock) {
+                while (pending.length() == 0) {
+                    writerIdle = true;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = draining;
+                draining = batch;
+                upTo = submitted;
+                lock.notifyAll(); // producers waiting for room
+            }
+            
+            sink.append(batch);
+            sink.flush();
+            batch.setLength(0);
+            
+            synchronized (lock) {
+                written = upTo;
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Reusable line buffer with allocation-free number formatting
+     */
+    public final class Line {
+        final StringBuilder text = new StringBuilder(256);
+        
+        public Line append(CharSequence value) {
+            text.append(value);
+            return this;
+        }
+        
+        public Line append(char value) {
+            text.append(value);
+            return this;
+        }
+        
+        public Line append(long value) {
+            text.append(value);
+            return this;
+        }
+        
+        /**
+         * Amount rounded to the currency's minor digits, then the code
+         * ("1,234.56 USD", "1,235 JPY")
+         */
+        public Line money(double amount, String currency) {
+            MoneyCodec.STANDARD.format(text, amount, currency);
+            return this;
+        }
+        
+        /**
+         * Left-aligned in a field of the given width (like %-5s)
+         */
+        public Line padded(CharSequence value, int width) {
+            text.append(value);
+            pad(width - value.length(), text.length());
+            return this;
+        }
+        
+        /**
+         * Fixed-point with the given number of decimals (like %.2f)
+         */
+        public Line fixed(double value, int decimals) {
+            appendFixed(text, value, decimals);
+            return this;
+        }
+        
+        /**
+         * Right-aligned fixed-point in a field of the given width (like %12.2f)
+         */
+        public Line fixed(double value, int decimals, int width) {
+            int start = text.length();
+            appendFixed(text, value, decimals);
+            pad(width - (text.length() - start), start);
+            return this;
+        }
+        
+        /**
+         * Ends the line and queues it for writing
+         */
+        public void println() {
+            text.append('\n');
+            submit(text);
+            text.setLength(0);
+        }
+        
+        private void pad(int count, int at) {
+            while (count > 0) {
+                int n = Math.min(count, SPACES.length);
+                text.insert(at, SPACES, 0, n);
+                count -= n;
+            }
+        }
+    }
+    
+    /**
+     * Same digits as String.format("%.Nf"): values are rounded half-up from
+     * their shortest decimal form. Values whose scaled fraction is not close
+     * to a tie are rounded directly in long arithmetic (the fast path shared
+     * with MoneyCodec); ties and very large values take the exact BigDecimal path.
+     */
+    static void appendFixed(StringBuilder out, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+            return;
+        }
+        if (decimals < 0 || decimals >= UNITS.length) {
+            throw new IllegalArgumentException("Unsupported precision " + decimals);
+        }
+        
+        long units = MoneyCodec.roundedUnits(value, decimals);
+        if (units >= 0) {
+            if (Double.doubleToRawLongBits(value) < 0) {
+                out.append('-');
+            }
+            out.append(units / UNITS[decimals]);
+            if (decimals > 0) {
+                out.append('.');
+                long remainder = units % UNITS[decimals];
+                for (long unit = UNITS[decimals] / 10; unit > remainder && unit > 1; unit /= 10) {
+                    out.append('0');
+                }
+                out.append(remainder);
+            }
+            return;
+        }
+        
+        BigDecimal rounded = new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP);
+        if (rounded.signum() == 0 && value < 0) {
+            out.append('-'); // BigDecimal has no negative zero
+        }
+        out.append(rounded.toPlainString());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,623 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only binary audit journal of conversions
+ * Converting threads claim a sequence number with one atomic increment,
+ * counted as in flight so close() waits for them, copy the conversion into preallocated primitive slots of a ring and mark
+ * the slot ready - no lock and no allocation. A single committer thread
+ * encodes every ready slot into one buffer, writes it with one FileChannel
+ * write and forces it to disk once for the whole group (group commit), so
+ * the cost of an fsync is shared by every conversion that arrived while the
+ * previous one was running. Callers that must not continue before their
+ * record is on disk use awaitDurable(sequence).
+ *
+ * Records go to segment files journal-<first sequence>.fxj in one directory,
+ * starting a new segment on open and whenever a segment reaches its size
+ * limit. Every frame carries a CRC32C, so a frame torn by a crash ends the
+ * replay of that segment instead of yielding garbage.
+ *
+ * Segment: magic "FXJ1", int version, long first sequence, then frames of
+ *   header: byte type, byte flags, short source id, int CRC32C
+ *   'C' conversion: int from, int to (packed codes), long sequence,
+ *                   long epochMillis, double amount, double rate, double result
+ *   'S' source name: int length, UTF-8 bytes; precedes the first use of the
+ *                   id in each segment
+ */
+public class ConversionJournal implements AutoCloseable {
+    
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    
+    private static final int MAGIC = 0x46584A31;          // "FXJ1"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 16;
+    private static final int FRAME_HEADER = 8;
+    private static final int CONVERSION_FRAME = FRAME_HEADER + 48;
+    private static final byte CONVERSION = 'C';
+    private static final byte SOURCE = 'S';
+    private static final byte STALE = 1;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".fxj";
+    
+    private final Path directory;
+    private final long segmentBytes;
+    private final int mask;
+    
+    // Ring slots, written by producers and read by the committer
+    private final AtomicLongArray ready;        // sequence whose data the slot holds
+    private final long[] times;
+    private final int[] fromCodes;
+    private final int[] toCodes;
+    private final short[] sources;
+    private final byte[] flags;
+    private final double[] amounts;
+    private final double[] rates;
+    private final double[] results;
+    
+    private final AtomicLong claimed;
+    private final AtomicInteger appending = new AtomicInteger(); // producers inside append()
+    private volatile long released;             // slots below this may be reused
+    private volatile long durable;              // everything below this is on disk
+    private volatile boolean committerParked;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    
+    private final Map<String, Integer> sourceIds = new ConcurrentHashMap<>();
+    private final List<String> sourceNames = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private final Object durableLock = new Object();
+    private final Thread committer;
+    
+    // Committer-only state
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private long segmentSize;
+    private boolean[] sourceWritten = new boolean[16];
+    private long groupCommits;
+    
+    /**
+     * Opens a journal in a directory with the default ring and segment size
+     */
+    public static ConversionJournal open(Path directory) throws IOException {
+        return new ConversionJournal(directory, DEFAULT_CAPACITY, DEFAULT_SEGMENT_BYTES);
+    }
+    
+    /**
+     * @param capacity Ring slots, rounded up to a power of two; producers
+     *        only wait when this many records are not yet encoded
+     * @param segmentBytes Size at which a new segment file is started
+     */
+    public ConversionJournal(Path directory, int capacity, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        ready = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ready.set(i, -1);
+        }
+        times = new long[size];
+        fromCodes = new int[size];
+        toCodes = new int[size];
+        sources = new short[size];
+        flags = new byte[size];
+        amounts = new double[size];
+        rates = new double[size];
+        results = new double[size];
+        
+        Files.createDirectories(directory);
+        long next = lastSequence(directory) + 1;
+        Path unused = segmentFile(next);
+        if (Files.exists(unused)) {
+            // Left by a run that stopped before its first record reached disk
+            Files.delete(unused);
+        }
+        claimed = new AtomicLong(next);
+        released = next;
+        durable = next;
+        openSegment(next);
+        
+        committer = new Thread(this::commitLoop, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+    
+    /**
+     * Queues one conversion; returns at once, before the record is on disk
+     * @return The record's sequence number, or -1 if the journal has failed
+     *         or is closed (the record is counted in getDropped())
+     */
+    public long append(long epochMillis, String fromCurrency, String toCurrency,
+            double amount, double rate, double result, String source, boolean stale) {
+        // Counted before the running check, so close() cannot let the
+        // committer finish between that check and the claim
+        appending.incrementAndGet();
+        try {
+            return publish(epochMillis, fromCurrency, toCurrency, amount, rate, result, source, stale);
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+    
+    private long publish(long epochMillis, String fromCurrency, String toCurrency,
+            double amount, double rate, double result, String source, boolean stale) {
+        if (failure != null || !running) {
+            dropped.increment();
+            return -1;
+        }
+        int sourceId = sourceId(source);
+        long sequence = claimed.getAndIncrement();
+        
+        int idle = 0;
+        while (sequence - released > mask) {
+            if (failure != null) {
+                dropped.increment();
+                return -1;
+            }
+            idle = backOff(idle);
+        }
+        
+        int slot = (int) sequence & mask;
+        times[slot] = epochMillis;
+        fromCodes[slot] = pack(fromCurrency);
+        toCodes[slot] = pack(toCurrency);
+        sources[slot] = (short) sourceId;
+        flags[slot] = stale ? STALE : 0;
+        amounts[slot] = amount;
+        rates[slot] = rate;
+        results[slot] = result;
+        // Volatile store: the slot writes become visible before the committer
+        // can see the sequence, and the parked check below cannot move above it
+        ready.set(slot, sequence);
+        
+        if (committerParked) {
+            LockSupport.unpark(committer);
+        }
+        return sequence;
+    }
+    
+    /**
+     * Waits until a record (and every one before it) has been forced to disk
+     * @return false if the journal failed before that
+     */
+    public boolean awaitDurable(long sequence) throws InterruptedException {
+        synchronized (durableLock) {
+            while (durable <= sequence && failure == null && committer.isAlive()) {
+                durableLock.wait(100);
+            }
+            return durable > sequence;
+        }
+    }
+    
+    /**
+     * Commits everything queued so far and stops the committer
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(committer);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Records written and forced to disk so far, counted from the first
+     * sequence of the directory
+     */
+    public long getDurableSequence() {
+        return durable;
+    }
+    
+    /**
+     * Number of fsyncs; records per group = records / group commits
+     */
+    public long getGroupCommits() {
+        return groupCommits;
+    }
+    
+    public long getDropped() {
+        return dropped.sum();
+    }
+    
+    public IOException getFailure() {
+        return failure;
+    }
+    
+    private int sourceId(String source) {
+        String name = source == null ? "" : source;
+        Integer id = sourceIds.get(name);
+        if (id == null) {
+            synchronized (sourceNames) {
+                id = sourceIds.get(name);
+                if (id == null) {
+                    id = sourceNames.size();
+                    sourceNames.add(name);
+                    sourceIds.put(name, id);
+                }
+            }
+        }
+        return id;
+    }
+    
+    private void commitLoop() {
+        long next = released;
+        try {
+            while (true) {
+                long start = next;
+                while (ready.get((int) next & mask) == next) {
+                    encode(next);
+                    next++;
+                }
+                
+                if (next > start) {
+                    // Slots are copied into the buffer; producers may reuse them during the fsync
+                    released = next;
+                    write();
+                    channel.force(false);
+                    groupCommits++;
+                    synchronized (durableLock) {
+                        durable = next;
+                        durableLock.notifyAll();
+                    }
+                    continue;
+                }
+                
+                // A producer that saw running may still be about to claim
+                if (!running && appending.get() == 0 && next >= claimed.get()) {
+                    break;
+                }
+                committerParked = true;
+                if (ready.get((int) next & mask) != next) {
+                    LockSupport.parkNanos(this, running ? 10_000_000L : 100_000L);
+                }
+                committerParked = false;
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Conversion journal stopped: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing more can be saved
+            }
+            synchronized (durableLock) {
+                durableLock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Copies one slot into the buffer, preceded by its source name if this
+     * segment has not seen it yet
+     */
+    private void encode(long sequence) throws IOException {
+        int slot = (int) sequence & mask;
+        int source = sources[slot];
+        byte[] name = null;
+        if (source >= sourceWritten.length || !sourceWritten[source]) {
+            name = sourceNames.get(source).getBytes(StandardCharsets.UTF_8);
+        }
+        int needed = CONVERSION_FRAME + (name == null ? 0 : FRAME_HEADER + 4 + name.length);
+        
+        if (segmentSize + buffer.position() + needed > segmentBytes && segmentSize > SEGMENT_HEADER) {
+            write();
+            channel.force(false);
+            channel.close();
+            openSegment(sequence);
+            name = sourceNames.get(source).getBytes(StandardCharsets.UTF_8);
+        }
+        if (buffer.remaining() < needed + FRAME_HEADER + 4) {
+            write();
+        }
+        
+        if (name != null) {
+            if (source >= sourceWritten.length) {
+                sourceWritten = Arrays.copyOf(sourceWritten, Math.max(source + 1, sourceWritten.length * 2));
+            }
+            sourceWritten[source] = true;
+            int frame = buffer.position();
+            buffer.put(SOURCE).put((byte) 0).putShort((short) source).putInt(0);
+            buffer.putInt(name.length).put(name);
+            sealFrame(frame);
+        }
+        
+        int frame = buffer.position();
+        buffer.put(CONVERSION).put(flags[slot]).putShort((short) source).putInt(0);
+        buffer.putInt(fromCodes[slot]).putInt(toCodes[slot]);
+        buffer.putLong(sequence).putLong(times[slot]);
+        buffer.putDouble(amounts[slot]).putDouble(rates[slot]).putDouble(results[slot]);
+        sealFrame(frame);
+    }
+    
+    /**
+     * Fills in the CRC of the frame that starts at the given position
+     */
+    private void sealFrame(int frame) {
+        int end = buffer.position();
+        crc.reset();
+        buffer.limit(frame + 4).position(frame);
+        crc.update(buffer);
+        buffer.limit(end).position(frame + FRAME_HEADER);
+        crc.update(buffer);
+        buffer.limit(buffer.capacity()).position(end);
+        buffer.putInt(frame + 4, (int) crc.getValue());
+    }
+    
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private void openSegment(long firstSequence) throws IOException {
+        channel = FileChannel.open(segmentFile(firstSequence), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(firstSequence).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentSize = SEGMENT_HEADER;
+        Arrays.fill(sourceWritten, false);
+    }
+    
+    private Path segmentFile(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+    }
+    
+    private static int backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+        return idle + 1;
+    }
+    
+    /**
+     * Up to three ASCII characters as an int; longer codes are cut
+     */
+    static int pack(String code) {
+        int packed = 0;
+        for (int i = 0; i < 3; i++) {
+            packed = (packed << 8) | (i < code.length() ? code.charAt(i) & 0xFF : 0);
+        }
+        return packed;
+    }
+    
+    static String unpack(int packed) {
+        StringBuilder code = new StringBuilder(3);
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int c = (packed >>> shift) & 0xFF;
+            if (c != 0) {
+                code.append((char) c);
+            }
+        }
+        return code.toString();
+    }
+    
+    /**
+     * One replayed conversion; the same instance is refilled for every record
+     */
+    public static final class Entry {
+        public long sequence;
+        public long timestamp;
+        public int from;          // packed, see fromCurrency()
+        public int to;
+        public double amount;
+        public double rate;
+        public double result;
+        public boolean stale;
+        public String source;
+        private final Map<Integer, String> codes = new HashMap<>();
+        
+        public String fromCurrency() {
+            return codes.computeIfAbsent(from, ConversionJournal::unpack);
+        }
+        
+        public String toCurrency() {
+            return codes.computeIfAbsent(to, ConversionJournal::unpack);
+        }
+    }
+    
+    public interface Visitor {
+        void onConversion(Entry entry);
+    }
+    
+    /**
+     * Reads every segment in the directory in order, calling the visitor
+     * for each conversion from fromSequence on. Segments are mapped and read
+     * front to back; a frame with a bad CRC or cut short ends its segment.
+     * @return Number of conversions visited
+     */
+    public static long replay(Path directory, long fromSequence, Visitor visitor) throws IOException {
+        Entry entry = new Entry();
+        CRC32C check = new CRC32C();
+        long count = 0;
+        
+        List<Path> segments = segments(directory);
+        for (int s = 0; s < segments.size(); s++) {
+            // Skip segments that end before fromSequence
+            if (s + 1 < segments.size() && firstSequence(segments.get(s + 1)) <= fromSequence) {
+                continue;
+            }
+            try (FileChannel file = FileChannel.open(segments.get(s), StandardOpenOption.READ)) {
+                if (file.size() < SEGMENT_HEADER) {
+                    continue;
+                }
+                MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                    throw new IOException("Not a journal segment: " + segments.get(s));
+                }
+                ByteBuffer view = data.duplicate();
+                Map<Integer, String> names = new HashMap<>();
+                int limit = data.limit();
+                int at = SEGMENT_HEADER;
+                
+                while (at + FRAME_HEADER <= limit) {
+                    byte type = data.get(at);
+                    int end;
+                    if (type == CONVERSION) {
+                        end = at + CONVERSION_FRAME;
+                    } else if (type == SOURCE && at + FRAME_HEADER + 4 <= limit) {
+                        end = at + FRAME_HEADER + 4 + data.getInt(at + FRAME_HEADER);
+                    } else {
+                        break;
+                    }
+                    if (end > limit || end < at) {
+                        break;
+                    }
+                    check.reset();
+                    view.limit(at + 4).position(at);
+                    check.update(view);
+                    view.limit(end).position(at + FRAME_HEADER);
+                    check.update(view);
+                    if ((int) check.getValue() != data.getInt(at + 4)) {
+                        break;
+                    }
+                    
+                    int source = data.getShort(at + 2);
+                    int body = at + FRAME_HEADER;
+                    if (type == SOURCE) {
+                        byte[] name = new byte[end - body - 4];
+                        view.limit(end).position(body + 4);
+                        view.get(name);
+                        names.put(source, new String(name, StandardCharsets.UTF_8));
+                    } else {
+                        entry.sequence = data.getLong(body + 8);
+                        if (entry.sequence >= fromSequence) {
+                            entry.from = data.getInt(body);
+                            entry.to = data.getInt(body + 4);
+                            entry.timestamp = data.getLong(body + 16);
+                            entry.amount = data.getDouble(body + 24);
+                            entry.rate = data.getDouble(body + 32);
+                            entry.result = data.getDouble(body + 40);
+                            entry.stale = (data.get(at + 1) & STALE) != 0;
+                            entry.source = names.get(source);
+                            visitor.onConversion(entry);
+                            count++;
+                        }
+                    }
+                    at = end;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Segment files in sequence order
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        TreeMap<Long, Path> sorted = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    sorted.put(firstSequence(file), file);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return new ArrayList<>(sorted.values());
+    }
+    
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+    
+    /**
+     * Highest sequence already in the directory, or -1 if empty
+     */
+    static long lastSequence(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            return -1;
+        }
+        long[] last = { firstSequence(segments.get(segments.size() - 1)) - 1 };
+        replay(directory, last[0] + 1, entry -> last[0] = entry.sequence);
+        return last[0];
+    }
+    
+    /**
+     * Totals per currency pair and per rate source from a journal directory:
+     *   java ConversionJournal DIRECTORY
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : System.getProperty("journal.dir", "journal"));
+        Map<Long, double[]> pairs = new HashMap<>();    // packed pair -> count, total amount, stale
+        Map<String, long[]> sources = new TreeMap<>();
+        long[] range = { Long.MAX_VALUE, Long.MIN_VALUE };
+        
+        long start = System.nanoTime();
+        long count = replay(directory, 0, entry -> {
+            double[] totals = pairs.computeIfAbsent(((long) entry.from << 32) | entry.to, k -> new double[3]);
+            totals[0]++;
+            totals[1] += entry.amount;
+            if (entry.stale) {
+                totals[2]++;
+            }
+            sources.computeIfAbsent(String.valueOf(entry.source), k -> new long[1])[0]++;
+            range[0] = Math.min(range[0], entry.timestamp);
+            range[1] = Math.max(range[1], entry.timestamp);
+        });
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        
+        ConsoleOutput output = ConsoleOutput.shared();
+        output.line().append(count).append(" conversions read in ").append(millis).append(" ms").println();
+        if (count > 0) {
+            output.println("From " + Instant.ofEpochMilli(range[0]) + " to " + Instant.ofEpochMilli(range[1]));
+        }
+        for (Map.Entry<Long, double[]> pair : new TreeMap<>(pairs).entrySet()) {
+            double[] totals = pair.getValue();
+            String name = unpack((int) (pair.getKey() >>> 32)) + "/" + unpack((int) (long) pair.getKey());
+            output.line().padded(name, 9).append(' ').padded(Long.toString((long) totals[0]), 10)
+                .append("  amount ").fixed(totals[1], 2, 18).append("  stale ").append((long) totals[2]).println();
+        }
+        for (Map.Entry<String, long[]> source : sources.entrySet()) {
+            output.line().append("  ").padded(Long.toString(source.getValue()[0]), 10).append(' ')
+                .append(source.getKey()).println();
+        }
+        output.flush();
+    }
+}
\ No newline at end of file
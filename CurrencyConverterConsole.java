@@ -1,12 +1,15 @@
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
 
 public class CurrencyConverterConsole {
     // Exchange rates relative to USD (1 USD = X currency)
-    private static final Map<String, Double> exchangeRates = new HashMap<>();
+    // Built-in defaults; rates.txt overrides them and is reloaded when it changes
+    private static final RateFileWatcher rateFile;
     
     static {
+        Map<String, Double> exchangeRates = new LinkedHashMap<>();
+        
         // Initialize exchange rates (as of example - you should update these)
         exchangeRates.put("USD", 1.0);      // US Dollar
         exchangeRates.put("EUR", 0.92);     // Euro
@@ -16,6 +19,9 @@ public class CurrencyConverterConsole {
         exchangeRates.put("INR", 83.12);    // Indian Rupee
         exchangeRates.put("CAD", 1.36);     // Canadian Dollar
         exchangeRates.put("AUD", 1.53);     // Australian Dollar
+        
+        rateFile = RateFileWatcher.forDefaultFile(
+            RateFileWatcher.Rates.of(exchangeRates, new LinkedHashMap<>(), 0));
     }
     
     /**
@@ -26,9 +32,19 @@ public class CurrencyConverterConsole {
      * @return Converted amount
      */
     public static double convert(double amount, String fromCurrency, String toCurrency) {
+        // One snapshot for both legs, so a reload can't mix old and new rates
+        return convert(rateFile.current(), amount, fromCurrency, toCurrency);
+    }
+    
+    /**
+     * Converts against a pinned snapshot, the one the codes were validated against
+     */
+    static double convert(RateFileWatcher.Rates snapshot, double amount, String fromCurrency, String toCurrency) {
+        RateTable rates = snapshot.table;
+        
         // First convert to USD, then to target currency
-        double amountInUSD = amount / exchangeRates.get(fromCurrency);
-        double convertedAmount = amountInUSD * exchangeRates.get(toCurrency);
+        double amountInUSD = amount / rates.rate(fromCurrency);
+        double convertedAmount = amountInUSD * rates.rate(toCurrency);
         return convertedAmount;
     }
     
@@ -36,9 +52,13 @@ public class CurrencyConverterConsole {
      * Displays all available currencies
      */
     public static void displayAvailableCurrencies() {
+        displayAvailableCurrencies(rateFile.current());
+    }
+    
+    static void displayAvailableCurrencies(RateFileWatcher.Rates snapshot) {
         System.out.println("\nAvailable Currencies:");
         System.out.println("---------------------");
-        for (String currency : exchangeRates.keySet()) {
+        for (String currency : snapshot.names.keySet()) {
             System.out.println(currency);
         }
     }
@@ -47,12 +67,22 @@ public class CurrencyConverterConsole {
      * Validates if a currency code exists
      */
     public static boolean isValidCurrency(String currency) {
-        return exchangeRates.containsKey(currency.toUpperCase());
+        return isValidCurrency(rateFile.current(), currency);
+    }
+    
+    static boolean isValidCurrency(RateFileWatcher.Rates snapshot, String currency) {
+        return snapshot.table.has(currency.toUpperCase());
     }
     
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
         
+        try {
+            rateFile.start();
+        } catch (Exception e) {
+            System.out.println("Rate file changes will not be picked up: " + e.getMessage());
+        }
+        
         System.out.println("=================================");
         System.out.println("   CURRENCY CONVERTER APP");
         System.out.println("=================================");
@@ -60,7 +90,9 @@ public class CurrencyConverterConsole {
         boolean continueConverting = true;
         
         while (continueConverting) {
-            displayAvailableCurrencies();
+            // Validate and convert against one snapshot; a reload may drop a code in between
+            RateFileWatcher.Rates snapshot = rateFile.current();
+            displayAvailableCurrencies(snapshot);
             
             // Get source currency
             String fromCurrency = "";
@@ -68,7 +100,7 @@ public class CurrencyConverterConsole {
                 System.out.print("\nEnter source currency code: ");
                 fromCurrency = scanner.nextLine().toUpperCase().trim();
                 
-                if (isValidCurrency(fromCurrency)) {
+                if (isValidCurrency(snapshot, fromCurrency)) {
                     break;
                 } else {
                     System.out.println("Invalid currency code. Please try again.");
@@ -81,7 +113,7 @@ public class CurrencyConverterConsole {
                 System.out.print("Enter target currency code: ");
                 toCurrency = scanner.nextLine().toUpperCase().trim();
                 
-                if (isValidCurrency(toCurrency)) {
+                if (isValidCurrency(snapshot, toCurrency)) {
                     break;
                 } else {
                     System.out.println("Invalid currency code. Please try again.");
@@ -106,7 +138,7 @@ public class CurrencyConverterConsole {
             }
             
             // Perform conversion
-            double result = convert(amount, fromCurrency, toCurrency);
+            double result = convert(snapshot, amount, fromCurrency, toCurrency);
             
             // Display result
             System.out.println("\n=================================");
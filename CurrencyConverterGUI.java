@@ -1,12 +1,14 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CurrencyConverterGUI extends JFrame {
-    // Exchange rates relative to USD
-    private static final Map<String, Double> exchangeRates = new HashMap<>();
+    // Exchange rates relative to USD; rates.txt overrides the defaults and is reloaded when it changes
+    private static final RateFileWatcher rateFile;
     
     // GUI Components
     private JComboBox<String> fromCurrencyCombo;
@@ -15,19 +17,44 @@ public class CurrencyConverterGUI extends JFrame {
     private JLabel resultLabel;
     private JButton convertButton;
     private JButton swapButton;
+    private JButton chartButton;
+    
+    // Every rate snapshot seen, for charts; null until loaded
+    private volatile RateHistory history;
     
     static {
         // Initialize exchange rates
-        exchangeRates.put("USD - US Dollar", 1.0);
-        exchangeRates.put("EUR - Euro", 0.92);
-        exchangeRates.put("GBP - British Pound", 0.79);
-        exchangeRates.put("JPY - Japanese Yen", 149.50);
-        exchangeRates.put("CNY - Chinese Yuan", 7.24);
-        exchangeRates.put("INR - Indian Rupee", 83.12);
-        exchangeRates.put("CAD - Canadian Dollar", 1.36);
-        exchangeRates.put("AUD - Australian Dollar", 1.53);
-        exchangeRates.put("CHF - Swiss Franc", 0.88);
-        exchangeRates.put("MXN - Mexican Peso", 17.15);
+        Map<String, Double> exchangeRates = new LinkedHashMap<>();
+        Map<String, String> names = new LinkedHashMap<>();
+        addDefault(exchangeRates, names, "USD", "US Dollar", 1.0);
+        addDefault(exchangeRates, names, "EUR", "Euro", 0.92);
+        addDefault(exchangeRates, names, "GBP", "British Pound", 0.79);
+        addDefault(exchangeRates, names, "JPY", "Japanese Yen", 149.50);
+        addDefault(exchangeRates, names, "CNY", "Chinese Yuan", 7.24);
+        addDefault(exchangeRates, names, "INR", "Indian Rupee", 83.12);
+        addDefault(exchangeRates, names, "CAD", "Canadian Dollar", 1.36);
+        addDefault(exchangeRates, names, "AUD", "Australian Dollar", 1.53);
+        addDefault(exchangeRates, names, "CHF", "Swiss Franc", 0.88);
+        addDefault(exchangeRates, names, "MXN", "Mexican Peso", 17.15);
+        
+        rateFile = RateFileWatcher.forDefaultFile(RateFileWatcher.Rates.of(exchangeRates, names, 0));
+    }
+    
+    private static void addDefault(Map<String, Double> rates, Map<String, String> names,
+            String code, String name, double rate) {
+        rates.put(code, rate);
+        names.put(code, name);
+    }
+    
+    /**
+     * Combo box entries ("USD - US Dollar") for a rate snapshot
+     */
+    private static String[] currencyLabels(RateFileWatcher.Rates rates) {
+        List<String> labels = new ArrayList<>();
+        for (Map.Entry<String, String> entry : rates.names.entrySet()) {
+            labels.add(entry.getKey() + " - " + entry.getValue());
+        }
+        return labels.toArray(new String[0]);
     }
     
     public CurrencyConverterGUI() {
@@ -38,6 +65,17 @@ public class CurrencyConverterGUI extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
         
+        // Release the history file when the window closes
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                RateHistory current = history;
+                if (current != null) {
+                    current.close();
+                }
+            }
+        });
+        
         // Create main panel with padding
         JPanel mainPanel = new JPanel();
         mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
@@ -71,7 +109,7 @@ public class CurrencyConverterGUI extends JFrame {
         fromPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
         JLabel fromLabel = new JLabel("From:");
         fromLabel.setFont(new Font("Arial", Font.PLAIN, 14));
-        String[] currencies = exchangeRates.keySet().toArray(new String[0]);
+        String[] currencies = currencyLabels(rateFile.current());
         fromCurrencyCombo = new JComboBox<>(currencies);
         fromCurrencyCombo.setFont(new Font("Arial", Font.PLAIN, 12));
         fromCurrencyCombo.setPreferredSize(new Dimension(250, 30));
@@ -119,6 +157,12 @@ public class CurrencyConverterGUI extends JFrame {
         convertButton.setFocusPainted(false);
         convertButton.addActionListener(new ConvertButtonListener());
         buttonPanel.add(convertButton);
+        chartButton = new JButton("Chart");
+        chartButton.setFont(new Font("Arial", Font.PLAIN, 14));
+        chartButton.setPreferredSize(new Dimension(100, 40));
+        chartButton.setFocusPainted(false);
+        chartButton.addActionListener(e -> showChart());
+        buttonPanel.add(chartButton);
         mainPanel.add(buttonPanel);
         mainPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         
@@ -134,6 +178,97 @@ public class CurrencyConverterGUI extends JFrame {
         
         // Add Enter key listener to amount field
         amountField.addActionListener(new ConvertButtonListener());
+        
+        // Pick up currencies added to or removed from the rate file
+        rateFile.addListener(rates -> SwingUtilities.invokeLater(() -> updateCurrencies(rates)));
+        
+        loadHistory();
+    }
+    
+    /**
+     * Reads the rate history off the EDT, then records the rates in use and
+     * every reload of the rate file
+     */
+    private void loadHistory() {
+        SwingWorker<RateHistory, Void> worker = new SwingWorker<RateHistory, Void>() {
+            @Override
+            protected RateHistory doInBackground() throws Exception {
+                RateHistory loaded = RateHistory.forDefaultFile();
+                RateTable table = rateFile.current().table;
+                if (table.getVersion() > 0) {
+                    loaded.record(table); // the built-in defaults are not history
+                }
+                return loaded;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    history = get();
+                    rateFile.addListener(rates -> history.record(rates.table));
+                } catch (Exception e) {
+                    System.err.println("Rate history unavailable: " + e.getMessage());
+                    history = new RateHistory();
+                }
+            }
+        };
+        worker.execute();
+    }
+    
+    /**
+     * Opens a chart of the selected pair from the local history
+     */
+    private void showChart() {
+        if (history == null) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Rate history is still loading.",
+                "Chart",
+                JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        String from = (String) fromCurrencyCombo.getSelectedItem();
+        String to = (String) toCurrencyCombo.getSelectedItem();
+        if (from == null || to == null) {
+            return;
+        }
+        String fromCode = from.split(" - ")[0];
+        String toCode = to.split(" - ")[0];
+        RateChartPanel.showChart(this, history, fromCode, toCode);
+    }
+    
+    /**
+     * Refills the combo boxes after a reload, keeping the selected currencies
+     */
+    private void updateCurrencies(RateFileWatcher.Rates rates) {
+        String[] currencies = currencyLabels(rates);
+        Object from = fromCurrencyCombo.getSelectedItem();
+        Object to = toCurrencyCombo.getSelectedItem();
+        
+        fromCurrencyCombo.setModel(new DefaultComboBoxModel<>(currencies));
+        toCurrencyCombo.setModel(new DefaultComboBoxModel<>(currencies));
+        fromCurrencyCombo.setSelectedItem(stillListed(currencies, from));
+        toCurrencyCombo.setSelectedItem(stillListed(currencies, to));
+        
+        // Rates in use just changed; an old result would be misleading
+        resultLabel.setText("Rates updated - convert again");
+    }
+    
+    /**
+     * The label for the previously selected code, or the first currency if
+     * the reload removed it (the model would accept a value not in the list)
+     */
+    private static String stillListed(String[] currencies, Object previous) {
+        if (previous != null) {
+            String code = ((String) previous).split(" - ")[0];
+            for (String label : currencies) {
+                if (label.split(" - ")[0].equals(code)) {
+                    return label;
+                }
+            }
+        }
+        return currencies.length > 0 ? currencies[0] : null;
     }
     
     /**
@@ -143,8 +278,10 @@ public class CurrencyConverterGUI extends JFrame {
         String fromCode = from.split(" - ")[0];
         String toCode = to.split(" - ")[0];
         
-        double fromRate = exchangeRates.get(from);
-        double toRate = exchangeRates.get(to);
+        // Both rates from one snapshot, even if a reload lands mid-conversion
+        RateTable rates = rateFile.current().table;
+        double fromRate = rates.rate(fromCode);
+        double toRate = rates.rate(toCode);
         
         double amountInUSD = amount / fromRate;
         return amountInUSD * toRate;
@@ -222,6 +359,11 @@ public class CurrencyConverterGUI extends JFrame {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
+                try {
+                    rateFile.start();
+                } catch (Exception e) {
+                    System.err.println("Rate file changes will not be picked up: " + e.getMessage());
+                }
                 CurrencyConverterGUI converter = new CurrencyConverterGUI();
                 converter.setVisible(true);
             }
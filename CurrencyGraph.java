@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Rate graph over every currency seen from any source
+ * Each fetched document adds edges base -> code (and the inverse when no
+ * direct quote exists), stamped with the document's time. A route is only
+ * as recent as its oldest edge; quote() returns that time so callers can
+ * tell a routed rate that has gone stale from a fresh one. All-pairs routes with the fewest hops are kept
+ * precomputed, so converting any connected pair - including pairs that need
+ * two or more hops - is a single table lookup.
+ *
+ * Route structure is computed with Floyd-Warshall when currencies are added
+ * and updated incrementally in O(n^2) when a new edge appears. A refresh that
+ * only changes rate values re-composes the rate matrix along the existing
+ * routes in O(n^2), which stays well below a millisecond for ~170 currencies.
+ */
+public class CurrencyGraph {
+    
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 4;
+    
+    /**
+     * Immutable published view, read without locks
+     */
+    static final class Routes {
+        final Map<String, Integer> index;
+        final int size;
+        final double[] rates; // size * size, NaN when no route
+        final long[] asOf;    // time of the oldest edge on each route
+        final int[] hops;
+        
+        Routes(Map<String, Integer> index, int size, double[] rates, long[] asOf, int[] hops) {
+            this.index = index;
+            this.size = size;
+            this.rates = rates;
+            this.asOf = asOf;
+            this.hops = hops;
+        }
+    }
+    
+    /**
+     * A routed rate and when the oldest edge it was composed from was quoted
+     */
+    public static final class Quote {
+        public final double rate;
+        public final long asOf;
+        
+        Quote(double rate, long asOf) {
+            this.rate = rate;
+            this.asOf = asOf;
+        }
+        
+        public boolean isOlderThan(long maxAgeMillis) {
+            return System.currentTimeMillis() - asOf >= maxAgeMillis;
+        }
+    }
+    
+    // Writer-side state, guarded by this
+    private final List<String> codes = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+    private double[][] edge = new double[0][0];
+    private long[][] edgeTime = new long[0][0];
+    private boolean[][] direct = new boolean[0][0];
+    private int[][] dist = new int[0][0];
+    private int[][] next = new int[0][0];
+    private boolean structureDirty = false;
+    private boolean orderDirty = false;
+    private int[] order = new int[0];
+    private int[] publishedHops = new int[0];
+    private Map<String, Integer> publishedIndex = Collections.emptyMap();
+    
+    private volatile Routes routes = new Routes(Collections.emptyMap(), 0, new double[0], new long[0], new int[0]);
+    private volatile long lastRecomputeNanos;
+    
+    /**
+     * Adds or refreshes the edges from one API document
+     * @param base Base currency of the document
+     * @param rates The document's "rates" object (units of code per 1 base)
+     * @param asOf When the document was fetched (epoch millis)
+     */
+    public synchronized void addRates(String base, JSONObject rates, long asOf) {
+        long start = System.nanoTime();
+        int from = node(base.toUpperCase());
+        
+        for (String key : rates.keySet()) {
+            double rate = rates.getDouble(key);
+            if (!(rate > 0)) {
+                continue;
+            }
+            
+            int to = node(key.toUpperCase());
+            if (from == to) {
+                continue;
+            }
+            
+            setEdge(from, to, rate, true, asOf);
+            if (!direct[to][from]) {
+                setEdge(to, from, 1.0 / rate, false, asOf);
+            }
+        }
+        
+        if (structureDirty) {
+            floydWarshall();
+            structureDirty = false;
+        }
+        publish();
+        lastRecomputeNanos = System.nanoTime() - start;
+    }
+    
+    /**
+     * Units of toCode per 1 fromCode along the best known route
+     * @return The rate, or NaN if the currencies are not connected
+     */
+    public double lookup(String fromCode, String toCode) {
+        Routes current = routes;
+        Integer from = current.index.get(fromCode);
+        Integer to = current.index.get(toCode);
+        if (from == null || to == null) {
+            return Double.NaN;
+        }
+        return current.rates[from * current.size + to];
+    }
+    
+    /**
+     * Rate along the best known route with the time of its oldest edge
+     * @return null if the currencies are not connected
+     */
+    public Quote quote(String fromCode, String toCode) {
+        Routes current = routes;
+        Integer from = current.index.get(fromCode);
+        Integer to = current.index.get(toCode);
+        if (from == null || to == null) {
+            return null;
+        }
+        int pair = from * current.size + to;
+        double rate = current.rates[pair];
+        return Double.isNaN(rate) ? null : new Quote(rate, current.asOf[pair]);
+    }
+    
+    /**
+     * Number of conversions on the route, or -1 if there is none
+     */
+    public int hops(String fromCode, String toCode) {
+        Routes current = routes;
+        Integer from = current.index.get(fromCode);
+        Integer to = current.index.get(toCode);
+        if (from == null || to == null) {
+            return -1;
+        }
+        int h = current.hops[from * current.size + to];
+        return h >= UNREACHABLE ? -1 : h;
+    }
+    
+    /**
+     * Currencies visited on the route from fromCode to toCode (inclusive)
+     */
+    public synchronized List<String> path(String fromCode, String toCode) {
+        Integer from = index.get(fromCode);
+        Integer to = index.get(toCode);
+        List<String> path = new ArrayList<>();
+        if (from == null || to == null || dist[from][to] >= UNREACHABLE) {
+            return path;
+        }
+        
+        int at = from;
+        path.add(codes.get(at));
+        while (at != to) {
+            at = next[at][to];
+            path.add(codes.get(at));
+        }
+        return path;
+    }
+    
+    public int size() {
+        return routes.size;
+    }
+    
+    public long getLastRecomputeNanos() {
+        return lastRecomputeNanos;
+    }
+    
+    private int node(String code) {
+        Integer existing = index.get(code);
+        if (existing != null) {
+            return existing;
+        }
+        
+        int id = codes.size();
+        codes.add(code);
+        index.put(code, id);
+        if (id >= edge.length) {
+            grow(Math.max(16, edge.length * 2));
+        }
+        structureDirty = true;
+        return id;
+    }
+    
+    private void setEdge(int from, int to, double rate, boolean isDirect, long asOf) {
+        boolean isNew = Double.isNaN(edge[from][to]);
+        edge[from][to] = rate;
+        edgeTime[from][to] = asOf;
+        direct[from][to] |= isDirect;
+        
+        // A new edge can only shorten routes; patch them instead of a full rebuild
+        if (isNew && !structureDirty) {
+            insertEdge(from, to);
+        }
+    }
+    
+    /**
+     * Incremental all-pairs update for a new edge (from -> to) of length 1
+     */
+    private void insertEdge(int u, int v) {
+        int n = codes.size();
+        for (int i = 0; i < n; i++) {
+            int viaU = dist[i][u];
+            if (viaU >= UNREACHABLE) {
+                continue;
+            }
+            int firstHop = (i == u) ? v : next[i][u];
+            for (int j = 0; j < n; j++) {
+                int candidate = viaU + 1 + dist[v][j];
+                if (candidate < dist[i][j]) {
+                    dist[i][j] = candidate;
+                    next[i][j] = firstHop;
+                    orderDirty = true;
+                }
+            }
+        }
+    }
+    
+    private void floydWarshall() {
+        int n = codes.size();
+        orderDirty = true;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) {
+                    dist[i][j] = 0;
+                    next[i][j] = j;
+                } else if (!Double.isNaN(edge[i][j])) {
+                    dist[i][j] = 1;
+                    next[i][j] = j;
+                } else {
+                    dist[i][j] = UNREACHABLE;
+                    next[i][j] = -1;
+                }
+            }
+        }
+        
+        for (int k = 0; k < n; k++) {
+            int[] distK = dist[k];
+            for (int i = 0; i < n; i++) {
+                int ik = dist[i][k];
+                if (ik >= UNREACHABLE) {
+                    continue;
+                }
+                int[] distI = dist[i];
+                int[] nextI = next[i];
+                for (int j = 0; j < n; j++) {
+                    if (ik + distK[j] < distI[j]) {
+                        distI[j] = ik + distK[j];
+                        nextI[j] = nextI[k];
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Composes route rates in order of increasing hop count, so the
+     * remainder of every route (one hop shorter) is already known.
+     * The ordering and the hop table only change with the route structure.
+     */
+    private void publish() {
+        int n = codes.size();
+        if (orderDirty) {
+            rebuildOrder(n);
+            orderDirty = false;
+        }
+        
+        double[] rates = new double[n * n];
+        long[] asOf = new long[n * n];
+        Arrays.fill(rates, Double.NaN);
+        for (int i = 0; i < n; i++) {
+            rates[i * n + i] = 1.0;
+            asOf[i * n + i] = Long.MAX_VALUE;
+        }
+        
+        for (int p = 0; p < order.length; p++) {
+            int i = order[p] / n;
+            int j = order[p] % n;
+            int k = next[i][j];
+            rates[order[p]] = edge[i][k] * rates[k * n + j];
+            asOf[order[p]] = Math.min(edgeTime[i][k], asOf[k * n + j]);
+        }
+        
+        routes = new Routes(publishedIndex, n, rates, asOf, publishedHops);
+    }
+    
+    /**
+     * Counting sort of all reachable pairs by hop count
+     */
+    private void rebuildOrder(int n) {
+        int[] hops = new int[n * n];
+        int maxHops = 0;
+        int reachable = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                hops[i * n + j] = dist[i][j];
+                if (i != j && dist[i][j] < UNREACHABLE) {
+                    maxHops = Math.max(maxHops, dist[i][j]);
+                    reachable++;
+                }
+            }
+        }
+        
+        int[] start = new int[maxHops + 2];
+        for (int pair = 0; pair < n * n; pair++) {
+            int h = hops[pair];
+            if (h > 0 && h < UNREACHABLE) {
+                start[h + 1]++;
+            }
+        }
+        for (int h = 1; h <= maxHops; h++) {
+            start[h + 1] += start[h];
+        }
+        
+        order = new int[reachable];
+        for (int pair = 0; pair < n * n; pair++) {
+            int h = hops[pair];
+            if (h > 0 && h < UNREACHABLE) {
+                order[start[h]++] = pair;
+            }
+        }
+        
+        publishedHops = hops;
+        publishedIndex = new HashMap<>(index);
+    }
+    
+    private void grow(int capacity) {
+        edge = resize(edge, capacity);
+        edgeTime = resize(edgeTime, capacity);
+        direct = resize(direct, capacity);
+        dist = new int[capacity][capacity];
+        next = new int[capacity][capacity];
+    }
+    
+    private static double[][] resize(double[][] old, int capacity) {
+        double[][] grown = new double[capacity][capacity];
+        for (int i = 0; i < capacity; i++) {
+            Arrays.fill(grown[i], Double.NaN);
+            if (i < old.length) {
+                System.arraycopy(old[i], 0, grown[i], 0, old[i].length);
+            }
+        }
+        return grown;
+    }
+    
+    private static long[][] resize(long[][] old, int capacity) {
+        long[][] grown = new long[capacity][capacity];
+        for (int i = 0; i < old.length; i++) {
+            System.arraycopy(old[i], 0, grown[i], 0, old[i].length);
+        }
+        return grown;
+    }
+    
+    private static boolean[][] resize(boolean[][] old, int capacity) {
+        boolean[][] grown = new boolean[capacity][capacity];
+        for (int i = 0; i < old.length; i++) {
+            System.arraycopy(old[i], 0, grown[i], 0, old[i].length);
+        }
+        return grown;
+    }
+}
\ No newline at end of file
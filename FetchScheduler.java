@@ -0,0 +1,405 @@
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Quota-aware scheduler for outbound rate requests
+ * - One token bucket per endpoint host keeps us under the free-tier limits
+ * - Three priority lanes: interactive conversions go first, background
+ *   refreshes next, prefetches last. Lower lanes may not dip into the
+ *   tokens kept in reserve for the lanes above them.
+ * - Every request carries a deadline and fails fast once it has passed
+ * - Identical requests already queued or in flight are merged
+ *   into the existing request instead of going out again
+ * - A 429 drains the endpoint's bucket until Retry-After and the request
+ *   is queued again while its deadline allows
+ */
+public class FetchScheduler {
+    
+    public enum Priority { INTERACTIVE, REFRESH, PREFETCH }
+    
+    // Share of the bucket a lane must leave for the lanes above it
+    private static final double[] LANE_RESERVE = { 0.0, 0.2, 0.5 };
+    private static final int DEFAULT_BURST = 5;
+    private static final double DEFAULT_PER_SECOND = 1.0;
+    private static final int MAX_RETRIES = 2;
+    
+    /**
+     * Classic token bucket; guarded by the scheduler lock
+     */
+    static final class TokenBucket {
+        final double capacity;
+        final double perMillisecond;
+        double tokens;
+        long lastRefill;
+        long blockedUntil;
+        
+        TokenBucket(int capacity, double perSecond) {
+            this.capacity = capacity;
+            this.perMillisecond = perSecond / 1000.0;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+        
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * perMillisecond);
+            lastRefill = now;
+        }
+        
+        boolean tryAcquire(long now, double reserve) {
+            if (now < blockedUntil) {
+                return false;
+            }
+            refill(now);
+            if (tokens >= 1.0 + reserve * capacity) {
+                tokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+        
+        long millisUntilToken(long now, double reserve) {
+            if (now < blockedUntil) {
+                return blockedUntil - now;
+            }
+            double missing = 1.0 + reserve * capacity - tokens;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing / perMillisecond);
+        }
+        
+        void block(long until) {
+            tokens = 0;
+            blockedUntil = Math.max(blockedUntil, until);
+        }
+    }
+    
+    /**
+     * One queued or in-flight fetch, possibly shared by several callers
+     */
+    private static final class Request {
+        final String key;
+        final String url;
+        final String host;
+        final String etag;
+        final String lastModified;
+        final long defaultTtl;
+        final CompletableFuture<RateFetcher.Response> future = new CompletableFuture<>();
+        Priority priority;
+        long deadline;
+        int attempts;
+        boolean inFlight;
+        
+        Request(String key, String url, String host, String etag, String lastModified, long defaultTtl,
+                Priority priority, long deadline) {
+            this.key = key;
+            this.url = url;
+            this.host = host;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.defaultTtl = defaultTtl;
+            this.priority = priority;
+            this.deadline = deadline;
+        }
+    }
+    
+    private static FetchScheduler shared;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Request>[] lanes;
+    private final Map<String, Request> pending = new HashMap<>();
+    private final Map<String, TokenBucket> buckets = new HashMap<>();
+    private final Map<String, int[]> stats = new HashMap<>(); // host -> {sent, merged, expired, throttled}
+    private final ExecutorService workers;
+    private final List<Request> expired = new ArrayList<>(); // dispatcher thread only
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public FetchScheduler() {
+        lanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+        
+        workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fetch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        Thread dispatcher = new Thread(this::dispatchLoop, "fetch-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+    
+    /**
+     * Process-wide scheduler used by the converters
+     */
+    public static synchronized FetchScheduler shared() {
+        if (shared == null) {
+            shared = new FetchScheduler();
+        }
+        return shared;
+    }
+    
+    /**
+     * Sets the quota for an endpoint host
+     * @param burst Requests that may go out back to back
+     * @param perSecond Sustained requests per second
+     */
+    public void setQuota(String host, int burst, double perSecond) {
+        lock.lock();
+        try {
+            buckets.put(host, new TokenBucket(burst, perSecond));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Queues a fetch
+     * @param timeoutMillis Time the caller is willing to wait, queueing included
+     * @return Future completed with the response, or with TimeoutException
+     *         if the deadline passes before the request could be sent
+     */
+    public CompletableFuture<RateFetcher.Response> submit(String url, String etag, String lastModified,
+            long defaultTtl, Priority priority, long timeoutMillis) {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (Exception e) {
+            CompletableFuture<RateFetcher.Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // Only identical requests are merged, so a 304 never reaches a caller without a cached copy
+        String key = url + "|" + etag + "|" + lastModified;
+        
+        lock.lock();
+        try {
+            Request existing = pending.get(key);
+            if (existing != null) {
+                // Merge: the shared request lives as long as its most patient caller
+                existing.deadline = Math.max(existing.deadline, deadline);
+                if (!existing.inFlight && priority.ordinal() < existing.priority.ordinal()) {
+                    lanes[existing.priority.ordinal()].remove(existing);
+                    existing.priority = priority;
+                    lanes[priority.ordinal()].addLast(existing);
+                }
+                stat(host)[1]++;
+                changed.signal();
+                return existing.future;
+            }
+            
+            Request request = new Request(key, url, host, etag, lastModified, defaultTtl, priority, deadline);
+            pending.put(key, request);
+            lanes[priority.ordinal()].addLast(request);
+            changed.signal();
+            return request.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Blocking form of submit() for the synchronous converters
+     */
+    public RateFetcher.Response fetch(String url, String etag, String lastModified, long defaultTtl,
+            Priority priority, long timeoutMillis) throws Exception {
+        CompletableFuture<RateFetcher.Response> future =
+            submit(url, etag, lastModified, defaultTtl, priority, timeoutMillis);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            throw new TimeoutException("Request not completed within " + timeoutMillis + " ms: " + url);
+        }
+    }
+    
+    /**
+     * Counters per host: sent, merged, expired, throttled (429)
+     */
+    public Map<String, int[]> getStats() {
+        lock.lock();
+        try {
+            Map<String, int[]> copy = new HashMap<>();
+            for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().clone());
+            }
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void dispatchLoop() {
+        while (true) {
+            try {
+                if (!dispatchOnce()) {
+                    return;
+                }
+            } finally {
+                failExpired();
+            }
+        }
+    }
+    
+    /**
+     * Expires overdue requests and sends the next one the buckets allow,
+     * or waits until one could be sent
+     * @return false once the dispatcher is interrupted
+     */
+    private boolean dispatchOnce() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            long wait = expireOverdue(now);
+            
+            Request next = null;
+            for (int lane = 0; lane < lanes.length && next == null; lane++) {
+                Iterator<Request> it = lanes[lane].iterator();
+                while (it.hasNext()) {
+                    Request request = it.next();
+                    TokenBucket bucket = bucket(request.host);
+                    if (bucket.tryAcquire(now, LANE_RESERVE[lane])) {
+                        it.remove();
+                        next = request;
+                        break;
+                    }
+                    wait = Math.min(wait, bucket.millisUntilToken(now, LANE_RESERVE[lane]));
+                }
+            }
+            
+            if (next == null) {
+                changed.await(Math.max(1, wait), TimeUnit.MILLISECONDS);
+                return true;
+            }
+            
+            next.inFlight = true;
+            next.attempts++;
+            stat(next.host)[0]++;
+            Request dispatched = next;
+            workers.execute(() -> execute(dispatched));
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Completes the requests expireOverdue removed, on the workers and after
+     * the lock is released: dependent stages run inside completeExceptionally,
+     * and a slow or re-entrant callback must not hold up scheduling
+     */
+    private void failExpired() {
+        for (Request request : expired) {
+            TimeoutException timeout = new TimeoutException("Deadline passed while queued for " + request.host);
+            workers.execute(() -> request.future.completeExceptionally(timeout));
+        }
+        expired.clear();
+    }
+    
+    private void execute(Request request) {
+        try {
+            // The socket timeouts never outlast the most patient caller
+            RateFetcher.Response response = RateFetcher.fetch(request.url, request.etag, request.lastModified,
+                request.defaultTtl, request.deadline - System.currentTimeMillis());
+            finish(request, response, null);
+        } catch (RateFetcher.HttpStatusException e) {
+            if (e.isRateLimited() && retryAfterThrottle(request, e)) {
+                return;
+            }
+            finish(request, null, e);
+        } catch (Exception e) {
+            finish(request, null, e);
+        }
+    }
+    
+    /**
+     * Blocks the endpoint and re-queues the request at the head of its lane
+     * @return false if the request should fail instead
+     */
+    private boolean retryAfterThrottle(Request request, RateFetcher.HttpStatusException e) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            long pause = e.retryAfterMillis > 0 ? e.retryAfterMillis : 1000;
+            bucket(request.host).block(now + pause);
+            stat(request.host)[3]++;
+            
+            if (request.attempts > MAX_RETRIES || now + pause >= request.deadline) {
+                return false;
+            }
+            request.inFlight = false;
+            lanes[request.priority.ordinal()].addFirst(request);
+            changed.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void finish(Request request, RateFetcher.Response response, Exception error) {
+        lock.lock();
+        try {
+            pending.remove(request.key, request);
+        } finally {
+            lock.unlock();
+        }
+        
+        // Outside the lock, on the worker that ran the request
+        if (error != null) {
+            request.future.completeExceptionally(error);
+        } else {
+            request.future.complete(response);
+        }
+    }
+    
+    /**
+     * Removes queued requests whose deadline has passed; failExpired
+     * completes them once the lock is released
+     * @return Milliseconds until the next queued deadline
+     */
+    private long expireOverdue(long now) {
+        long nextDeadline = Long.MAX_VALUE;
+        for (ArrayDeque<Request> lane : lanes) {
+            Iterator<Request> it = lane.iterator();
+            while (it.hasNext()) {
+                Request request = it.next();
+                if (request.deadline <= now) {
+                    it.remove();
+                    pending.remove(request.key, request);
+                    stat(request.host)[2]++;
+                    expired.add(request);
+                } else {
+                    nextDeadline = Math.min(nextDeadline, request.deadline);
+                }
+            }
+        }
+        return nextDeadline == Long.MAX_VALUE ? 1000 : nextDeadline - now;
+    }
+    
+    private TokenBucket bucket(String host) {
+        return buckets.computeIfAbsent(host, h -> new TokenBucket(DEFAULT_BURST, DEFAULT_PER_SECOND));
+    }
+    
+    private int[] stat(String host) {
+        return stats.computeIfAbsent(host, h -> new int[4]);
+    }
+}
\ No newline at end of file
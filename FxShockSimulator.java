@@ -0,0 +1,556 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Monte Carlo stress test of a portfolio against random FX shocks
+ * Conversion is linear, so the positions are first collapsed into one
+ * exposure per currency (PortfolioValuator) and a scenario costs one pass
+ * over the currencies, however many positions there are. A scenario moves
+ * the log rate of every currency against the rate table's base by a shock
+ * drawn from a Model - independent normal, correlated normal (Cholesky
+ * factor of a covariance estimated from RateHistory) or resampled
+ * historical moves - and revalues:
+ *   value = rate(reporting) * e^z(reporting) * sum over c of exposure(c) / rate(c) * e^-z(c)
+ *
+ * Scenarios run in fixed blocks, each with its own SplittableRandom split
+ * from the seed in advance, so results do not depend on the number of
+ * threads. Each worker allocates its primitive buffers once; the loops over
+ * the currency arrays are plain stride-one loops the JIT can unroll and
+ * vectorize.
+ *
+ * Run: java -cp ".;json-20230227.jar" FxShockSimulator --synthetic 10000000 [EUR]
+ *      java -cp ".;json-20230227.jar" FxShockSimulator positions.csv [EUR]
+ * Options: --scenarios N, --horizon-days D, --vol ANNUAL, --seed S,
+ *          --historical (resample history instead of drawing normals)
+ */
+public class FxShockSimulator {
+    
+    private static final int BLOCK = 512;                 // scenarios per random stream
+    private static final double YEAR_MILLIS = 365.25 * 86400000;
+    private static final double[] CONFIDENCE = { 0.95, 0.99, 0.999 };
+    
+    /**
+     * Draws the log-rate shocks of one scenario
+     */
+    public abstract static class Model {
+        final int dimension;
+        
+        Model(int dimension) {
+            this.dimension = dimension;
+        }
+        
+        /**
+         * Fills shocks[0..dimension) using the worker's own scratch buffer
+         */
+        abstract void draw(SplittableRandom random, double[] scratch, double[] shocks);
+        
+        /**
+         * Independent normal shocks with the given standard deviations
+         */
+        public static Model independent(double[] sigma) {
+            double[] s = sigma.clone();
+            return new Model(s.length) {
+                @Override
+                void draw(SplittableRandom random, double[] scratch, double[] shocks) {
+                    for (int i = 0; i < dimension; i++) {
+                        scratch[i] = random.nextGaussian();
+                    }
+                    for (int i = 0; i < dimension; i++) {
+                        shocks[i] = s[i] * scratch[i];
+                    }
+                }
+            };
+        }
+        
+        /**
+         * Correlated normal shocks with the given covariance matrix
+         * (positive semi-definite; directions with no variance are left still)
+         */
+        public static Model correlated(double[][] covariance) {
+            int n = covariance.length;
+            double[] factor = cholesky(covariance);
+            return new Model(n) {
+                @Override
+                void draw(SplittableRandom random, double[] scratch, double[] shocks) {
+                    Arrays.fill(shocks, 0, n, 0.0);
+                    // shocks = L * e, one column at a time: each step is an axpy over
+                    // contiguous memory with no loop-carried dependency
+                    for (int j = 0; j < n; j++) {
+                        double e = random.nextGaussian();
+                        int column = j * n;
+                        for (int i = j; i < n; i++) {
+                            shocks[i] += factor[column + i] * e;
+                        }
+                    }
+                }
+            };
+        }
+        
+        /**
+         * Observed moves, drawn with replacement
+         * @param moves One row of log moves per observation
+         * @param scale Multiplier per observation (e.g. to a common horizon)
+         */
+        public static Model historical(double[][] moves, double[] scale) {
+            int n = moves.length == 0 ? 0 : moves[0].length;
+            double[] flat = new double[moves.length * n];
+            for (int k = 0; k < moves.length; k++) {
+                System.arraycopy(moves[k], 0, flat, k * n, n);
+            }
+            double[] factor = scale.clone();
+            int count = moves.length;
+            return new Model(n) {
+                @Override
+                void draw(SplittableRandom random, double[] scratch, double[] shocks) {
+                    int k = random.nextInt(count);
+                    int row = k * n;
+                    double s = factor[k];
+                    for (int i = 0; i < n; i++) {
+                        shocks[i] = flat[row + i] * s;
+                    }
+                }
+            };
+        }
+    }
+    
+    /**
+     * Losses of every scenario, sorted ascending (positive = value lost)
+     */
+    public static final class Result {
+        public final String reportingCurrency;
+        public final double baseValue;
+        public final double[] losses;
+        public final double mean;
+        public final double stdDev;
+        public final long elapsedNanos;
+        
+        Result(String reportingCurrency, double baseValue, double[] losses, long elapsedNanos) {
+            this.reportingCurrency = reportingCurrency;
+            this.baseValue = baseValue;
+            this.losses = losses;
+            this.elapsedNanos = elapsedNanos;
+            
+            double sum = 0;
+            for (double loss : losses) {
+                sum += loss;
+            }
+            mean = sum / losses.length;
+            double squares = 0;
+            for (double loss : losses) {
+                squares += (loss - mean) * (loss - mean);
+            }
+            stdDev = Math.sqrt(squares / Math.max(1, losses.length - 1));
+        }
+        
+        /**
+         * Loss not exceeded with the given confidence (e.g. 0.99)
+         */
+        public double valueAtRisk(double confidence) {
+            int index = (int) Math.ceil(confidence * losses.length) - 1;
+            return losses[Math.max(0, Math.min(losses.length - 1, index))];
+        }
+        
+        /**
+         * Average loss in the tail beyond valueAtRisk(confidence)
+         */
+        public double expectedShortfall(double confidence) {
+            int from = Math.max(0, Math.min(losses.length - 1, (int) Math.ceil(confidence * losses.length) - 1));
+            double sum = 0;
+            for (int i = from; i < losses.length; i++) {
+                sum += losses[i];
+            }
+            return sum / (losses.length - from);
+        }
+        
+        /**
+         * Scenario counts in equal-width loss bins from the smallest to the
+         * largest loss
+         */
+        public int[] histogram(int bins) {
+            int[] counts = new int[bins];
+            double low = losses[0];
+            double width = (losses[losses.length - 1] - low) / bins;
+            for (double loss : losses) {
+                int bin = width > 0 ? (int) ((loss - low) / width) : 0;
+                counts[Math.min(bins - 1, bin)]++;
+            }
+            return counts;
+        }
+    }
+    
+    private final ForkJoinPool pool;
+    
+    public FxShockSimulator() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public FxShockSimulator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Runs scenarios over exposures per currency
+     * @param currencies Currencies of the exposures, in the model's order
+     * @param exposures Native amount held in each currency
+     * @param rates Snapshot the shocks are applied to (units per base)
+     * @param reportingCurrency Must be one of the currencies
+     * @param scenarios At least one; every currency needs a rate in the snapshot
+     */
+    public Result run(List<String> currencies, double[] exposures, RateTable rates, String reportingCurrency,
+            Model model, int scenarios, long seed) {
+        int n = currencies.size();
+        int reporting = currencies.indexOf(reportingCurrency);
+        if (reporting < 0 || model.dimension != n || exposures.length != n) {
+            throw new IllegalArgumentException("Model, exposures and currencies must match and include "
+                + reportingCurrency);
+        }
+        if (scenarios < 1) {
+            throw new IllegalArgumentException("At least one scenario is needed, got " + scenarios);
+        }
+        for (String code : currencies) {
+            if (!rates.has(code)) {
+                throw new IllegalArgumentException("No " + rates.getBase() + " rate for " + code);
+            }
+        }
+        
+        // Exposure in base units; the base itself never moves
+        double[] weights = new double[n];
+        double baseSum = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] = exposures[i] / rates.rate(currencies.get(i));
+            baseSum += weights[i];
+        }
+        double reportingRate = rates.rate(reportingCurrency);
+        double baseValue = reportingRate * baseSum;
+        
+        int blocks = (scenarios + BLOCK - 1) / BLOCK;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            streams[b] = root.split();
+        }
+        
+        double[] losses = new double[scenarios];
+        AtomicInteger nextBlock = new AtomicInteger();
+        long start = System.nanoTime();
+        
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < Math.min(blocks, pool.getParallelism()); w++) {
+            workers.add(() -> {
+                double[] scratch = new double[n];
+                double[] shocks = new double[n];
+                int b;
+                while ((b = nextBlock.getAndIncrement()) < blocks) {
+                    SplittableRandom random = streams[b];
+                    int end = Math.min(scenarios, (b + 1) * BLOCK);
+                    for (int s = b * BLOCK; s < end; s++) {
+                        model.draw(random, scratch, shocks);
+                        double sum = 0;
+                        for (int i = 0; i < n; i++) {
+                            sum += weights[i] * Math.exp(-shocks[i]);
+                        }
+                        losses[s] = baseValue - reportingRate * Math.exp(shocks[reporting]) * sum;
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> done : pool.invokeAll(workers)) {
+            try {
+                done.get();
+            } catch (Exception e) {
+                throw new IllegalStateException("Scenario worker failed", e);
+            }
+        }
+        
+        Arrays.sort(losses);
+        return new Result(reportingCurrency, baseValue, losses, System.nanoTime() - start);
+    }
+    
+    /**
+     * Lower-triangular Cholesky factor, stored column by column
+     * (factor[j * n + i] is L[i][j]); columns with no remaining variance
+     * are set to zero
+     */
+    static double[] cholesky(double[][] a) {
+        int n = a.length;
+        double[] factor = new double[n * n];
+        for (int j = 0; j < n; j++) {
+            double d = a[j][j];
+            for (int k = 0; k < j; k++) {
+                d -= factor[k * n + j] * factor[k * n + j];
+            }
+            if (d <= 1e-300) {
+                continue;
+            }
+            double pivot = Math.sqrt(d);
+            factor[j * n + j] = pivot;
+            for (int i = j + 1; i < n; i++) {
+                double s = a[i][j];
+                for (int k = 0; k < j; k++) {
+                    s -= factor[k * n + i] * factor[k * n + j];
+                }
+                factor[j * n + i] = s / pivot;
+            }
+        }
+        return factor;
+    }
+    
+    /**
+     * Log moves of the currencies against the table base between
+     * consecutive snapshots that quote all of them
+     * @return [moves (one row per observation), elapsed millis per row], or
+     *         null if fewer than two such snapshots are recorded
+     */
+    static double[][][] historicalMoves(RateHistory history, List<String> currencies, String base) {
+        // Everything is recorded per USD; USD itself is constantly 1
+        List<String> recorded = new ArrayList<>();
+        for (String code : currencies) {
+            if (!code.equals("USD") && !recorded.contains(code)) {
+                recorded.add(code);
+            }
+        }
+        if (!base.equals("USD") && !recorded.contains(base)) {
+            recorded.add(base);
+        }
+        if (recorded.isEmpty()) {
+            return null;
+        }
+        
+        // Timestamps every series has
+        long[] common = null;
+        int size = 0;
+        for (String code : recorded) {
+            RateHistory.Series series = history.get(code);
+            if (series == null) {
+                return null;
+            }
+            int count = series.size();
+            long[] times = series.times();
+            if (common == null) {
+                common = Arrays.copyOf(times, count);
+                size = count;
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0, j = 0; i < size && j < count; ) {
+                if (common[i] < times[j]) {
+                    i++;
+                } else if (common[i] > times[j]) {
+                    j++;
+                } else {
+                    common[kept++] = common[i];
+                    i++;
+                    j++;
+                }
+            }
+            size = kept;
+        }
+        if (size < 2) {
+            return null;
+        }
+        
+        // Log level per USD of each recorded currency at the common timestamps
+        Map<String, double[]> levels = new HashMap<>();
+        for (String code : recorded) {
+            RateHistory.Series series = history.get(code);
+            long[] times = series.times();
+            double[] values = series.values();
+            double[] level = new double[size];
+            for (int i = 0, j = 0; i < size; j++) {
+                if (times[j] == common[i]) {
+                    level[i++] = Math.log(values[j]);
+                }
+            }
+            levels.put(code, level);
+        }
+        double[] zero = new double[size];
+        double[] baseLevel = levels.getOrDefault(base, zero);
+        
+        double[][] moves = new double[size - 1][currencies.size()];
+        double[][] elapsed = new double[1][size - 1];
+        for (int k = 1; k < size; k++) {
+            elapsed[0][k - 1] = common[k] - common[k - 1];
+            for (int c = 0; c < currencies.size(); c++) {
+                double[] level = levels.getOrDefault(currencies.get(c), zero);
+                moves[k - 1][c] = (level[k] - level[k - 1]) - (baseLevel[k] - baseLevel[k - 1]);
+            }
+        }
+        return new double[][][] { moves, elapsed };
+    }
+    
+    /**
+     * Covariance of log moves over a horizon, assuming variance grows with
+     * elapsed time: sum of products over all moves / total elapsed * horizon
+     */
+    static double[][] covariance(double[][] moves, double[] elapsed, double horizonMillis) {
+        int n = moves[0].length;
+        double total = 0;
+        for (double t : elapsed) {
+            total += t;
+        }
+        double[][] covariance = new double[n][n];
+        for (double[] move : moves) {
+            for (int i = 0; i < n; i++) {
+                double mi = move[i];
+                for (int j = 0; j <= i; j++) {
+                    covariance[i][j] += mi * move[j];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                covariance[i][j] *= horizonMillis / total;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+        return covariance;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        List<String> options = Arrays.asList(args);
+        if (args.length == 0) {
+            System.out.println("Usage: FxShockSimulator positions.csv [REPORTING] | --synthetic N [REPORTING]");
+            System.out.println("       [--scenarios N] [--horizon-days D] [--vol ANNUAL] [--seed S] [--historical]");
+            return;
+        }
+        int scenarios = Integer.parseInt(option(options, "--scenarios", "10000"));
+        double horizon = Double.parseDouble(option(options, "--horizon-days", "1")) * 86400000;
+        double annualVol = Double.parseDouble(option(options, "--vol", "0.10"));
+        long seed = Long.parseLong(option(options, "--seed", "42"));
+        boolean historical = options.contains("--historical");
+        
+        PortfolioValuator.Positions positions;
+        RateTable rates;
+        String reporting;
+        
+        if (args[0].equals("--synthetic")) {
+            int count = Integer.parseInt(args[1]);
+            reporting = args.length > 2 && !args[2].startsWith("--") ? args[2].toUpperCase() : "USD";
+            SplittableRandom random = new SplittableRandom(seed);
+            Map<String, Double> rateMap = new HashMap<>();
+            for (String[] curr : AdvancedAPICurrencyConverter.POPULAR_CURRENCIES) {
+                rateMap.put(curr[0], curr[0].equals("USD") ? 1.0 : 0.5 + random.nextDouble() * 100);
+            }
+            rates = RateTable.of("USD", rateMap, 1, System.currentTimeMillis());
+            
+            String[][] popular = AdvancedAPICurrencyConverter.POPULAR_CURRENCIES;
+            positions = new PortfolioValuator.Positions(count);
+            for (int i = 0; i < count; i++) {
+                positions.add(popular[random.nextInt(popular.length)][0], random.nextDouble() * 1e6 - 2e5);
+            }
+        } else {
+            reporting = args.length > 1 && !args[1].startsWith("--") ? args[1].toUpperCase() : "USD";
+            positions = PortfolioValuator.readPositions(Paths.get(args[0]));
+            rates = RateTable.fromJSON(AdvancedAPICurrencyConverter.getExchangeRates(reporting));
+        }
+        
+        ConsoleOutput output = ConsoleOutput.shared();
+        if (scenarios < 1) {
+            output.error("✗ --scenarios must be at least 1");
+            output.flush();
+            System.exit(1);
+        }
+        if (!rates.has(reporting)) {
+            output.error("✗ No rate for reporting currency " + reporting);
+            output.flush();
+            System.exit(1);
+        }
+        
+        long start = System.nanoTime();
+        PortfolioValuator.Valuation valuation = new PortfolioValuator().value(positions, rates, reporting);
+        List<String> currencies = new ArrayList<>(valuation.reportingTotals.keySet());
+        if (!currencies.contains(reporting)) {
+            currencies.add(reporting);
+        }
+        double[] exposures = new double[currencies.size()];
+        for (int i = 0; i < exposures.length; i++) {
+            exposures[i] = valuation.nativeTotals.getOrDefault(currencies.get(i), 0.0);
+        }
+        long aggregated = System.nanoTime() - start;
+        
+        Model model = null;
+        String source = null;
+        RateHistory history = null;
+        if (Files.exists(Paths.get(System.getProperty("rates.history", RateHistory.DEFAULT_FILE)))) {
+            try {
+                history = RateHistory.forDefaultFile();
+            } catch (IOException e) {
+                output.warn("Rate history unreadable: " + e.getMessage());
+            }
+        }
+        double[][][] observed = history == null ? null : historicalMoves(history, currencies, rates.getBase());
+        
+        if (observed != null && historical) {
+            double[] scale = new double[observed[1][0].length];
+            for (int k = 0; k < scale.length; k++) {
+                scale[k] = Math.sqrt(horizon / Math.max(1, observed[1][0][k]));
+            }
+            model = Model.historical(observed[0], scale);
+            source = "resampled history (" + scale.length + " moves)";
+        } else if (observed != null) {
+            model = Model.correlated(covariance(observed[0], observed[1][0], horizon));
+            source = "correlated normal from history (" + observed[0].length + " moves)";
+        } else {
+            double[] sigma = new double[currencies.size()];
+            double scaled = annualVol * Math.sqrt(horizon / YEAR_MILLIS);
+            for (int i = 0; i < sigma.length; i++) {
+                sigma[i] = currencies.get(i).equals(rates.getBase()) ? 0 : scaled;
+            }
+            model = Model.independent(sigma);
+            source = "independent normal, " + (annualVol * 100) + "% a year";
+            if (historical) {
+                output.warn("Not enough recorded history for --historical; using normal shocks");
+            }
+        }
+        
+        FxShockSimulator simulator = new FxShockSimulator();
+        simulator.run(currencies, exposures, rates, reporting, model, Math.min(scenarios, 1000), seed); // warm-up
+        Result result = simulator.run(currencies, exposures, rates, reporting, model, scenarios, seed);
+        
+        output.println("\n===== FX Shock Simulation (" + reporting + ") =====");
+        output.line().append("Positions:  ").append(positions.size()).append(" in ").append(currencies.size())
+            .append(" currencies, aggregated in ").fixed(aggregated / 1e6, 1).append(" ms").println();
+        output.line().append("Shocks:     ").append(source).append(", horizon ")
+            .fixed(horizon / 86400000, 2).append(" days").println();
+        output.line().append("Value:      ").money(result.baseValue, reporting).println();
+        output.line().append("Mean loss:  ").money(result.mean, reporting).append("   std dev ")
+            .money(result.stdDev, reporting).println();
+        for (double confidence : CONFIDENCE) {
+            output.line().append("VaR ").fixed(confidence * 100, 1, 5).append("%: ").money(result.valueAtRisk(confidence), reporting)
+                .append("   ES ").money(result.expectedShortfall(confidence), reporting).println();
+        }
+        output.line().append("Worst:      ").money(result.losses[result.losses.length - 1], reporting).println();
+        
+        int[] counts = result.histogram(20);
+        int most = Arrays.stream(counts).max().orElse(1);
+        double width = (result.losses[result.losses.length - 1] - result.losses[0]) / counts.length;
+        output.println("\nLoss distribution:");
+        for (int b = 0; b < counts.length; b++) {
+            ConsoleOutput.Line line = output.line().fixed(result.losses[0] + b * width, 0, 18).append(" | ");
+            for (int i = 0; i < counts[b] * 50 / most; i++) {
+                line.append('#');
+            }
+            line.append(' ').append(counts[b]).println();
+        }
+        output.line().append('\n').append(scenarios).append(" scenarios on ").append(ForkJoinPool.commonPool().getParallelism())
+            .append(" threads in ").fixed(result.elapsedNanos / 1e6, 1).append(" ms").println();
+        output.flush();
+    }
+    
+    private static String option(List<String> options, String name, String fallback) {
+        int at = options.indexOf(name);
+        return at >= 0 && at + 1 < options.size() ? options.get(at + 1) : fallback;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,502 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Money parsing and formatting without intermediate objects
+ * Parsing reads decimal text straight from a CharSequence or an ASCII byte
+ * buffer into a long scaled to the currency's minor units (or a double),
+ * accepting the locale's decimal separator and its grouping separator
+ * between groups of three digits ("1,234.5", not "1,50" or "12,34.5"). Formatting writes
+ * a scaled long or a double, rounded to the currency's minor digits, into
+ * a caller-supplied StringBuilder or byte array. Minor digits and symbols
+ * come from java.util.Currency and are looked up once per code.
+ *
+ * Errors throw NumberFormatException, like Double.parseDouble.
+ */
+public final class MoneyCodec {
+    
+    private static final long[] POWERS = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+    private static final double[] DOUBLE_POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT = 1L << 53;
+    private static final double LONG_RANGE = 9e18; // scaled amounts below this fit a long after rounding
+    private static final int NO_GROUPING = Integer.MIN_VALUE / 2; // group counter before any separator
+    
+    /**
+     * Period decimal point and comma grouping, as in en-US
+     */
+    public static final MoneyCodec STANDARD = new MoneyCodec('.', ',', Locale.US);
+    
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final Locale locale;
+    private final Map<String, String> symbols = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> minorDigits = new ConcurrentHashMap<>();
+    
+    public MoneyCodec(char decimalSeparator, char groupingSeparator, Locale locale) {
+        if (decimalSeparator == groupingSeparator) {
+            throw new IllegalArgumentException("Decimal and grouping separators must differ");
+        }
+        this.decimalSeparator = decimalSeparator;
+        this.groupingSeparator = groupingSeparator;
+        this.locale = locale;
+    }
+    
+    /**
+     * Separators and symbols of a locale (de-DE: 1.234,56)
+     */
+    public static MoneyCodec forLocale(Locale locale) {
+        DecimalFormatSymbols format = DecimalFormatSymbols.getInstance(locale);
+        return new MoneyCodec(format.getMonetaryDecimalSeparator(), format.getGroupingSeparator(), locale);
+    }
+    
+    /**
+     * Minor digits of a currency (USD 2, JPY 0, KWD 3); 2 for unknown codes
+     */
+    public static int minorDigits(String currency) {
+        Integer digits = minorDigits.get(currency);
+        if (digits == null) {
+            int known;
+            try {
+                known = Currency.getInstance(currency).getDefaultFractionDigits();
+            } catch (IllegalArgumentException e) {
+                known = -1;
+            }
+            digits = known < 0 ? 2 : known;
+            minorDigits.put(currency, digits);
+        }
+        return digits;
+    }
+    
+    // ---- Parsing ----
+    
+    /**
+     * Parses an amount into minor units of the currency, rounding half-up
+     * beyond its minor digits ("1,234.565" USD -> 123457)
+     */
+    public long parseMinor(CharSequence text, String currency) {
+        return parseScaled(text, 0, text.length(), minorDigits(currency));
+    }
+    
+    /**
+     * Parses text[start, end) into a long scaled by 10^scale
+     */
+    public long parseScaled(CharSequence text, int start, int end, int scale) {
+        return parseScaled(text, null, start, end, scale);
+    }
+    
+    /**
+     * Parses ASCII bytes [start, end) into a long scaled by 10^scale
+     */
+    public long parseScaled(byte[] buffer, int start, int end, int scale) {
+        return parseScaled(null, buffer, start, end, scale);
+    }
+    
+    /**
+     * Shared by both inputs: exactly one of text and bytes is set, so byte
+     * input is read in place
+     */
+    private long parseScaled(CharSequence text, byte[] bytes, int start, int end, int scale) {
+        long result = 0;
+        int pos = skipSpaces(text, bytes, start, end);
+        end = trimSpaces(text, bytes, pos, end);
+        boolean negative = false;
+        if (pos < end && (at(text, bytes, pos) == '-' || at(text, bytes, pos) == '+')) {
+            negative = at(text, bytes, pos) == '-';
+            pos++;
+        }
+        
+        int digits = 0;
+        int group = NO_GROUPING;    // digits since the last grouping separator
+        int fraction = -1;          // digits seen after the decimal separator
+        boolean roundUp = false;
+        for (; pos < end; pos++) {
+            char c = at(text, bytes, pos);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (fraction < 0) {
+                    group++;
+                }
+                if (fraction < 0 || fraction < scale) {
+                    if (result > (Long.MAX_VALUE - (c - '0')) / 10) {
+                        throw rangeError(text, bytes, start, end);
+                    }
+                    result = result * 10 + (c - '0');
+                    if (fraction >= 0) {
+                        fraction++;
+                    }
+                } else if (fraction == scale) {
+                    roundUp = c >= '5';
+                    fraction++;
+                }
+            } else if (c == decimalSeparator && fraction < 0) {
+                if (!groupComplete(group)) {
+                    throw error(text, bytes, start, end);
+                }
+                fraction = 0;
+            } else if (isGrouping(c) && fraction < 0 && digits > 0) {
+                group = nextGroup(group, digits);
+                if (group < 0) {
+                    throw error(text, bytes, start, end);
+                }
+            } else {
+                throw error(text, bytes, start, end);
+            }
+        }
+        if (digits == 0 || fraction < 0 && !groupComplete(group)) {
+            throw error(text, bytes, start, end);
+        }
+        
+        for (int f = Math.max(fraction, 0); f < scale; f++) {
+            if (result > Long.MAX_VALUE / 10) {
+                throw rangeError(text, bytes, start, end);
+            }
+            result *= 10;
+        }
+        if (roundUp) {
+            if (result == Long.MAX_VALUE) {
+                throw rangeError(text, bytes, start, end);
+            }
+            result++;
+        }
+        return negative ? -result : result;
+    }
+    
+    /**
+     * Parses text[start, end) as a double; decimal text with up to 15
+     * significant digits is converted exactly, longer input falls back to
+     * Double.parseDouble
+     */
+    public double parseDouble(CharSequence text, int start, int end) {
+        int pos = skipSpaces(text, null, start, end);
+        int stop = trimSpaces(text, null, pos, end);
+        boolean negative = false;
+        if (pos < stop && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;
+        int group = NO_GROUPING;
+        int scale = 0;
+        boolean afterPoint = false;
+        boolean exact = true;
+        for (; pos < stop; pos++) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (mantissa < MAX_EXACT / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (afterPoint) {
+                        scale++;
+                    }
+                } else {
+                    exact = false;
+                }
+                digits++;
+                if (!afterPoint) {
+                    group++;
+                }
+            } else if (c == decimalSeparator && !afterPoint) {
+                if (!groupComplete(group)) {
+                    throw error(text, null, start, end);
+                }
+                afterPoint = true;
+            } else if (isGrouping(c) && !afterPoint && digits > 0) {
+                group = nextGroup(group, digits);
+                if (group < 0) {
+                    throw error(text, null, start, end);
+                }
+            } else {
+                throw error(text, null, start, end);
+            }
+        }
+        if (digits == 0 || !afterPoint && !groupComplete(group)) {
+            throw error(text, null, start, end);
+        }
+        
+        if (exact && scale < DOUBLE_POWERS.length) {
+            // Both operands are exact doubles, so one division rounds correctly
+            double value = mantissa / DOUBLE_POWERS[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(normalize(text, start, end));
+    }
+    
+    public double parseDouble(CharSequence text) {
+        return parseDouble(text, 0, text.length());
+    }
+    
+    // ---- Formatting ----
+    
+    /**
+     * Appends minor units as a decimal with grouping ("123456", 2 -> "1,234.56")
+     */
+    public StringBuilder formatScaled(StringBuilder out, long value, int scale) {
+        if (value < 0) {
+            out.append('-');
+        }
+        // Work on the negative value so Long.MIN_VALUE needs no special case
+        long negative = value < 0 ? value : -value;
+        long whole = negative / POWERS[scale];
+        long fraction = -(negative - whole * POWERS[scale]);
+        appendGrouped(out, whole);
+        if (scale > 0) {
+            out.append(decimalSeparator);
+            for (long unit = POWERS[scale - 1]; unit > fraction && unit > 1; unit /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+        return out;
+    }
+    
+    /**
+     * Appends an amount rounded half-up to the currency's minor digits,
+     * followed by the code ("1,234.56 USD", "1,235 JPY")
+     */
+    public StringBuilder format(StringBuilder out, double amount, String currency) {
+        return appendRounded(out, amount, minorDigits(currency), null).append(' ').append(currency);
+    }
+    
+    /**
+     * Appends an amount with the currency's symbol in front ("$1,234.56")
+     */
+    public StringBuilder formatWithSymbol(StringBuilder out, double amount, String currency) {
+        return appendRounded(out, amount, minorDigits(currency), symbol(currency));
+    }
+    
+    /**
+     * Sign, optional symbol, then the amount rounded half-up and grouped.
+     * Amounts whose minor units would not fit a long are grouped from their
+     * exact decimal digits instead.
+     */
+    private StringBuilder appendRounded(StringBuilder out, double amount, int scale, String symbol) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new NumberFormatException("Not a finite amount: " + amount);
+        }
+        if (Math.abs(amount) * POWERS[scale] < LONG_RANGE) {
+            long scaled = toScaled(amount, scale);
+            if (scaled < 0) {
+                out.append('-');
+            }
+            if (symbol != null) {
+                out.append(symbol);
+            }
+            return formatScaled(out, scaled < 0 ? -scaled : scaled, scale);
+        }
+        
+        BigDecimal rounded = new BigDecimal(Double.toString(amount)).setScale(scale, RoundingMode.HALF_UP);
+        String digits = rounded.unscaledValue().abs().toString();
+        if (rounded.signum() < 0) {
+            out.append('-');
+        }
+        if (symbol != null) {
+            out.append(symbol);
+        }
+        int whole = digits.length() - scale; // at least 19 digits at this size
+        for (int i = 0; i < whole; i++) {
+            if (i > 0 && (whole - i) % 3 == 0) {
+                out.append(groupingSeparator);
+            }
+            out.append(digits.charAt(i));
+        }
+        if (scale > 0) {
+            out.append(decimalSeparator).append(digits, whole, digits.length());
+        }
+        return out;
+    }
+    
+    /**
+     * Writes minor units as ASCII at pos and returns the position after
+     * them; separators must be ASCII
+     */
+    public int formatScaled(byte[] out, int pos, long value, int scale) {
+        if (value < 0) {
+            out[pos++] = '-';
+        }
+        // Digits come from the negative value, as in the StringBuilder version
+        long negative = value < 0 ? value : -value;
+        long whole = negative / POWERS[scale];
+        long fraction = -(negative % POWERS[scale]);
+        
+        int length = 1;
+        for (long rest = whole / 10; rest < 0; rest /= 10) {
+            length++;
+        }
+        int end = pos + length + (length - 1) / 3;
+        int at = end;
+        for (int i = 0; i < length; i++) {
+            if (i > 0 && i % 3 == 0) {
+                out[--at] = (byte) groupingSeparator;
+            }
+            out[--at] = (byte) ('0' - whole % 10);
+            whole /= 10;
+        }
+        pos = end;
+        if (scale > 0) {
+            out[pos++] = (byte) decimalSeparator;
+            for (int i = scale - 1; i >= 0; i--) {
+                out[pos + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += scale;
+        }
+        return pos;
+    }
+    
+    /**
+     * Rounds half-up (away from zero) to a long scaled by 10^scale, using
+     * the shortest decimal form of the double as %.Nf does
+     * @throws ArithmeticException if the scaled amount does not fit a long
+     */
+    public static long toScaled(double amount, int scale) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new NumberFormatException("Not a finite amount: " + amount);
+        }
+        long units = roundedUnits(amount, scale);
+        if (units >= 0) {
+            return amount < 0 ? -units : units;
+        }
+        return new BigDecimal(Double.toString(amount)).setScale(scale, RoundingMode.HALF_UP)
+            .unscaledValue().longValueExact();
+    }
+    
+    /**
+     * |value| * 10^scale rounded half-up in long arithmetic, or -1 when the
+     * scaled fraction is close to a tie or the value is too large; callers
+     * then round the exact decimal form with BigDecimal
+     */
+    static long roundedUnits(double value, int scale) {
+        double scaled = Math.abs(value) * POWERS[scale];
+        if (scaled < 1e12) {
+            long whole = (long) scaled;
+            double fraction = scaled - whole;
+            if (Math.abs(fraction - 0.5) > 1e-3) {
+                return fraction > 0.5 ? whole + 1 : whole;
+            }
+        }
+        return -1;
+    }
+    
+    public String symbol(String currency) {
+        String symbol = symbols.get(currency);
+        if (symbol == null) {
+            try {
+                symbol = Currency.getInstance(currency).getSymbol(locale);
+            } catch (IllegalArgumentException e) {
+                symbol = currency + " ";
+            }
+            symbols.put(currency, symbol);
+        }
+        return symbol;
+    }
+    
+    // ---- Helpers ----
+    
+    private void appendGrouped(StringBuilder out, long negativeWhole) {
+        // negativeWhole <= 0
+        if (negativeWhole > -1000) {
+            out.append(-negativeWhole);
+            return;
+        }
+        appendGrouped(out, negativeWhole / 1000);
+        out.append(groupingSeparator);
+        long group = -(negativeWhole % 1000);
+        if (group < 100) {
+            out.append('0');
+        }
+        if (group < 10) {
+            out.append('0');
+        }
+        out.append(group);
+    }
+    
+    /**
+     * The locale's grouping separator, or what people type for it: any
+     * space where the locale groups with a no-break space (fr-FR), and an
+     * apostrophe for the Swiss right single quote (de-CH)
+     */
+    private boolean isGrouping(char c) {
+        return c == groupingSeparator
+            || Character.isSpaceChar(groupingSeparator) && Character.isSpaceChar(c)
+            || groupingSeparator == '\u2019' && c == '\'';
+    }
+    
+    /**
+     * Group counter after a grouping separator, or -1 if the separator is
+     * misplaced: the first group has 1 to 3 digits and every later one 3
+     */
+    private static int nextGroup(int group, int digits) {
+        boolean valid = group < 0 ? digits <= 3 : group == 3;
+        return valid ? 0 : -1;
+    }
+    
+    /**
+     * Whether the integer part may end here: no separator seen, or exactly
+     * 3 digits since the last one
+     */
+    private static boolean groupComplete(int group) {
+        return group < 0 || group == 3;
+    }
+    
+    private static char at(CharSequence text, byte[] bytes, int index) {
+        return bytes != null ? (char) (bytes[index] & 0xFF) : text.charAt(index);
+    }
+    
+    private static int skipSpaces(CharSequence text, byte[] bytes, int pos, int end) {
+        while (pos < end && at(text, bytes, pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+    
+    private static int trimSpaces(CharSequence text, byte[] bytes, int start, int end) {
+        while (end > start && at(text, bytes, end - 1) == ' ') {
+            end--;
+        }
+        return end;
+    }
+    
+    /**
+     * Slow path only: the text in Double.parseDouble's syntax
+     */
+    private String normalize(CharSequence text, int start, int end) {
+        StringBuilder plain = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == decimalSeparator) {
+                plain.append('.');
+            } else if (!isGrouping(c) && c != ' ') {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    }
+    
+    private static NumberFormatException error(CharSequence text, byte[] bytes, int start, int end) {
+        return new NumberFormatException("Not an amount: \"" + source(text, bytes, start, end) + "\"");
+    }
+    
+    private static NumberFormatException rangeError(CharSequence text, byte[] bytes, int start, int end) {
+        return new NumberFormatException("Amount out of range: " + source(text, bytes, start, end));
+    }
+    
+    private static String source(CharSequence text, byte[] bytes, int start, int end) {
+        return bytes != null
+            ? new String(bytes, start, end - start, StandardCharsets.ISO_8859_1)
+            : text.subSequence(start, end).toString();
+    }
+}
\ No newline at end of file
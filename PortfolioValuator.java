@@ -0,0 +1,290 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Values large portfolios in one reporting currency
+ * Positions are held in primitive arrays with the currency interned to a
+ * small id. Valuation splits the positions into ranges with fork/join; each
+ * leaf sums its amounts into per-currency buckets using compensated
+ * (Kahan-Babuska) summation, and partial buckets are merged pairwise with
+ * their error terms. Conversion is linear, so each bucket is multiplied by
+ * its rate only once, and every bucket uses the same pinned RateTable.
+ *
+ * Run: java -cp ".;json-20230227.jar" PortfolioValuator positions.csv [EUR]
+ *      java -cp ".;json-20230227.jar" PortfolioValuator --synthetic 10000000 [EUR]
+ * where each line of positions.csv is CODE,AMOUNT (grouping commas allowed).
+ */
+public class PortfolioValuator {
+    
+    private static final int LEAF_SIZE = 1 << 16;
+    
+    /**
+     * Growable column store of positions
+     */
+    public static final class Positions {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> codes = new ArrayList<>();
+        private int[] currency;
+        private double[] amount;
+        private int size;
+        
+        public Positions() {
+            this(1024);
+        }
+        
+        public Positions(int expectedSize) {
+            currency = new int[Math.max(16, expectedSize)];
+            amount = new double[Math.max(16, expectedSize)];
+        }
+        
+        public void add(String currencyCode, double value) {
+            Integer id = ids.get(currencyCode);
+            if (id == null) {
+                id = codes.size();
+                ids.put(currencyCode, id);
+                codes.add(currencyCode);
+            }
+            
+            if (size == amount.length) {
+                currency = Arrays.copyOf(currency, size * 2);
+                amount = Arrays.copyOf(amount, size * 2);
+            }
+            currency[size] = id;
+            amount[size] = value;
+            size++;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public List<String> getCurrencies() {
+            return Collections.unmodifiableList(codes);
+        }
+    }
+    
+    /**
+     * Valuation result
+     */
+    public static final class Valuation {
+        public final String reportingCurrency;
+        public final long rateVersion;
+        public final Map<String, Double> nativeTotals;     // per currency, in that currency
+        public final Map<String, Double> reportingTotals;  // per currency, converted
+        public final double grandTotal;                    // priced currencies only
+        public final List<String> unpriced;                // currencies with no rate
+        
+        Valuation(String reportingCurrency, long rateVersion, Map<String, Double> nativeTotals,
+                Map<String, Double> reportingTotals, double grandTotal, List<String> unpriced) {
+            this.reportingCurrency = reportingCurrency;
+            this.rateVersion = rateVersion;
+            this.nativeTotals = nativeTotals;
+            this.reportingTotals = reportingTotals;
+            this.grandTotal = grandTotal;
+            this.unpriced = unpriced;
+        }
+    }
+    
+    private final ForkJoinPool pool;
+    
+    public PortfolioValuator() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public PortfolioValuator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Values positions against a pinned rate snapshot
+     */
+    public Valuation value(Positions positions, RateTable rates, String reportingCurrency) {
+        int buckets = positions.codes.size();
+        double[] sums = pool.invoke(new BucketSum(positions.currency, positions.amount, buckets, 0, positions.size));
+        
+        Map<String, Double> nativeTotals = new LinkedHashMap<>();
+        Map<String, Double> reportingTotals = new LinkedHashMap<>();
+        List<String> unpriced = new ArrayList<>();
+        double total = 0;
+        double compensation = 0;
+        
+        for (int id = 0; id < buckets; id++) {
+            String code = positions.codes.get(id);
+            double nativeTotal = sums[2 * id] + sums[2 * id + 1];
+            nativeTotals.put(code, nativeTotal);
+            
+            if (!rates.has(code) || !rates.has(reportingCurrency)) {
+                unpriced.add(code);
+                continue;
+            }
+            double converted = nativeTotal * rates.crossRate(code, reportingCurrency);
+            reportingTotals.put(code, converted);
+            
+            double t = total + converted;
+            compensation += Math.abs(total) >= Math.abs(converted)
+                ? (total - t) + converted
+                : (converted - t) + total;
+            total = t;
+        }
+        
+        return new Valuation(reportingCurrency, rates.getVersion(), nativeTotals, reportingTotals,
+            total + compensation, unpriced);
+    }
+    
+    /**
+     * Values positions against the converter's current rates for the
+     * reporting currency, fetched once and used for every bucket
+     */
+    public Valuation value(Positions positions, String reportingCurrency) throws Exception {
+        RateTable rates = RateTable.fromJSON(AdvancedAPICurrencyConverter.getExchangeRates(reportingCurrency));
+        return value(positions, rates, reportingCurrency);
+    }
+    
+    /**
+     * Per-currency compensated sums over a range of positions
+     * Result layout: [sum0, err0, sum1, err1, ...]
+     */
+    private static final class BucketSum extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] currency;
+        private final double[] amount;
+        private final int buckets;
+        private final int from;
+        private final int to;
+        
+        BucketSum(int[] currency, double[] amount, int buckets, int from, int to) {
+            this.currency = currency;
+            this.amount = amount;
+            this.buckets = buckets;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected double[] compute() {
+            if (to - from <= LEAF_SIZE) {
+                return leaf();
+            }
+            
+            int mid = (from + to) >>> 1;
+            BucketSum left = new BucketSum(currency, amount, buckets, from, mid);
+            left.fork();
+            double[] right = new BucketSum(currency, amount, buckets, mid, to).compute();
+            double[] result = left.join();
+            
+            for (int b = 0; b < buckets; b++) {
+                add(result, b, right[2 * b]);
+                result[2 * b + 1] += right[2 * b + 1];
+            }
+            return result;
+        }
+        
+        private double[] leaf() {
+            double[] result = new double[2 * buckets];
+            for (int i = from; i < to; i++) {
+                add(result, currency[i], amount[i]);
+            }
+            return result;
+        }
+        
+        /**
+         * Neumaier's variant of Kahan summation into bucket b
+         */
+        private static void add(double[] result, int b, double value) {
+            double sum = result[2 * b];
+            double t = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                result[2 * b + 1] += (sum - t) + value;
+            } else {
+                result[2 * b + 1] += (value - t) + sum;
+            }
+            result[2 * b] = t;
+        }
+    }
+    
+    /**
+     * Reads CODE,AMOUNT lines; lines starting with # are skipped
+     */
+    public static Positions readPositions(Path file) throws IOException {
+        Positions positions = new Positions();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Everything after the first comma is the amount, so "EUR,1,234.50" reads as 1234.50
+                int comma = line.indexOf(',');
+                String code = comma < 0 ? "" : line.substring(0, comma).trim();
+                if (!code.isEmpty() && !code.startsWith("#")) {
+                    positions.add(code.toUpperCase(), MoneyCodec.STANDARD.parseDouble(line, comma + 1, line.length()));
+                }
+            }
+        }
+        return positions;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: PortfolioValuator positions.csv [REPORTING] | --synthetic N [REPORTING]");
+            return;
+        }
+        
+        Positions positions;
+        String reporting;
+        RateTable rates;
+        
+        if (args[0].equals("--synthetic")) {
+            int count = Integer.parseInt(args[1]);
+            reporting = args.length > 2 ? args[2].toUpperCase() : "USD";
+            
+            // Offline-friendly: random rates and positions across the popular currencies
+            SplittableRandom random = new SplittableRandom(42);
+            Map<String, Double> rateMap = new HashMap<>();
+            for (String[] curr : AdvancedAPICurrencyConverter.POPULAR_CURRENCIES) {
+                rateMap.put(curr[0], curr[0].equals("USD") ? 1.0 : 0.5 + random.nextDouble() * 100);
+            }
+            rates = RateTable.of("USD", rateMap, 1, System.currentTimeMillis());
+            
+            String[][] popular = AdvancedAPICurrencyConverter.POPULAR_CURRENCIES;
+            positions = new Positions(count);
+            for (int i = 0; i < count; i++) {
+                positions.add(popular[random.nextInt(popular.length)][0], random.nextDouble() * 1e6 - 2e5);
+            }
+        } else {
+            reporting = args.length > 1 ? args[1].toUpperCase() : "USD";
+            positions = readPositions(Paths.get(args[0]));
+            rates = RateTable.fromJSON(AdvancedAPICurrencyConverter.getExchangeRates(reporting));
+        }
+        
+        PortfolioValuator valuator = new PortfolioValuator();
+        valuator.value(positions, rates, reporting); // warm-up
+        
+        long start = System.nanoTime();
+        Valuation valuation = valuator.value(positions, rates, reporting);
+        double millis = (System.nanoTime() - start) / 1e6;
+        
+        System.out.println("\n===== Portfolio Valuation (" + reporting + ") =====");
+        for (Map.Entry<String, Double> entry : valuation.reportingTotals.entrySet()) {
+            System.out.printf("%-5s %20.2f %s = %20.2f %s%n", entry.getKey(),
+                valuation.nativeTotals.get(entry.getKey()), entry.getKey(), entry.getValue(), reporting);
+        }
+        System.out.println("==============================================");
+        System.out.printf("Total %46.2f %s%n", valuation.grandTotal, reporting);
+        if (!valuation.unpriced.isEmpty()) {
+            System.out.println("No rate for: " + String.join(", ", valuation.unpriced));
+        }
+        System.out.printf("Valued %d positions in %.1f ms%n", positions.size(), millis);
+    }
+}
\ No newline at end of file
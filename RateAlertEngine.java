@@ -0,0 +1,229 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate threshold alerts ("notify me when EUR/USD crosses 1.10")
+ * Alerts are indexed per currency pair in two sorted maps keyed by
+ * threshold - one for upward crossings, one for downward. When a new rate
+ * arrives for a pair, the alerts it crossed are exactly the thresholds
+ * between the previous and the new rate, so one range query finds them:
+ * the cost is a tree lookup plus the number of alerts that fire, however
+ * many are registered. Alerts fire once and are then removed; listeners
+ * are called on an executor, never on the refresh thread.
+ *
+ * attach() subscribes the engine to AdvancedAPICurrencyConverter's snapshot
+ * publisher, so every fresh fetch and live tick batch is checked.
+ */
+public class RateAlertEngine implements Flow.Subscriber<RateTable> {
+    
+    public enum Direction { ABOVE, BELOW }
+    
+    /**
+     * Called once when an alert fires
+     */
+    public interface AlertListener {
+        void onAlert(Alert alert, double rate);
+    }
+    
+    /**
+     * A registered alert; also the handle for cancel()
+     */
+    public static final class Alert {
+        public final long id;
+        public final String fromCurrency;
+        public final String toCurrency;
+        public final double threshold;
+        public final Direction direction;
+        final AlertListener listener;
+        
+        Alert(long id, String fromCurrency, String toCurrency, double threshold, Direction direction,
+                AlertListener listener) {
+            this.id = id;
+            this.fromCurrency = fromCurrency;
+            this.toCurrency = toCurrency;
+            this.threshold = threshold;
+            this.direction = direction;
+            this.listener = listener;
+        }
+        
+        @Override
+        public String toString() {
+            return fromCurrency + "/" + toCurrency + (direction == Direction.ABOVE ? " >= " : " <= ") + threshold;
+        }
+    }
+    
+    /**
+     * Alerts of one pair; guarded by its own monitor
+     */
+    private static final class PairIndex {
+        final String fromCurrency;
+        final String toCurrency;
+        final NavigableMap<Double, List<Alert>> above = new TreeMap<>();
+        final NavigableMap<Double, List<Alert>> below = new TreeMap<>();
+        double lastRate = Double.NaN;
+        int size;
+        
+        PairIndex(String fromCurrency, String toCurrency) {
+            this.fromCurrency = fromCurrency;
+            this.toCurrency = toCurrency;
+        }
+        
+        /**
+         * Removes and returns every alert crossed by moving to rate
+         */
+        List<Alert> update(double rate) {
+            double previous = lastRate;
+            lastRate = rate;
+            if (Double.isNaN(previous) || previous == rate) {
+                return null;
+            }
+            
+            // Up: thresholds in (previous, rate]; down: thresholds in [rate, previous)
+            NavigableMap<Double, List<Alert>> crossed = rate > previous
+                ? above.subMap(previous, false, rate, true)
+                : below.subMap(rate, true, previous, false);
+            if (crossed.isEmpty()) {
+                return null;
+            }
+            
+            List<Alert> fired = new ArrayList<>();
+            for (List<Alert> alerts : crossed.values()) {
+                fired.addAll(alerts);
+            }
+            crossed.clear();
+            size -= fired.size();
+            return fired;
+        }
+    }
+    
+    private final Map<String, PairIndex> pairs = new ConcurrentHashMap<>();
+    private final Executor dispatcher;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    
+    public RateAlertEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    public RateAlertEngine(Executor dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    
+    /**
+     * Subscribes to every snapshot the converter publishes
+     */
+    public RateAlertEngine attach() {
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(this);
+        return this;
+    }
+    
+    /**
+     * Registers a one-shot alert
+     * @param direction ABOVE fires when the rate rises to or through the
+     *        threshold, BELOW when it falls to or through it
+     */
+    public Alert register(String fromCurrency, String toCurrency, double threshold, Direction direction,
+            AlertListener listener) {
+        String from = fromCurrency.toUpperCase();
+        String to = toCurrency.toUpperCase();
+        Alert alert = new Alert(nextId.incrementAndGet(), from, to, threshold, direction, listener);
+        
+        PairIndex index = pairs.computeIfAbsent(from + "/" + to, k -> new PairIndex(from, to));
+        synchronized (index) {
+            NavigableMap<Double, List<Alert>> side = direction == Direction.ABOVE ? index.above : index.below;
+            side.computeIfAbsent(threshold, k -> new ArrayList<>(1)).add(alert);
+            index.size++;
+        }
+        return alert;
+    }
+    
+    /**
+     * @return false if the alert already fired or was cancelled
+     */
+    public boolean cancel(Alert alert) {
+        PairIndex index = pairs.get(alert.fromCurrency + "/" + alert.toCurrency);
+        if (index == null) {
+            return false;
+        }
+        
+        synchronized (index) {
+            NavigableMap<Double, List<Alert>> side = alert.direction == Direction.ABOVE ? index.above : index.below;
+            List<Alert> alerts = side.get(alert.threshold);
+            if (alerts == null || !alerts.remove(alert)) {
+                return false;
+            }
+            if (alerts.isEmpty()) {
+                side.remove(alert.threshold);
+            }
+            index.size--;
+            return true;
+        }
+    }
+    
+    /**
+     * Checks every pair quoted by the table and dispatches what fired
+     */
+    public void onRates(RateTable table) {
+        for (PairIndex index : pairs.values()) {
+            if (!table.has(index.fromCurrency) || !table.has(index.toCurrency)) {
+                continue;
+            }
+            double rate = table.crossRate(index.fromCurrency, index.toCurrency);
+            
+            List<Alert> crossed;
+            synchronized (index) {
+                crossed = index.update(rate);
+            }
+            if (crossed != null) {
+                fired.addAndGet(crossed.size());
+                for (Alert alert : crossed) {
+                    dispatcher.execute(() -> alert.listener.onAlert(alert, rate));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Alerts still waiting to fire
+     */
+    public int getRegisteredCount() {
+        int count = 0;
+        for (PairIndex index : pairs.values()) {
+            synchronized (index) {
+                count += index.size;
+            }
+        }
+        return count;
+    }
+    
+    public long getFiredCount() {
+        return fired.get();
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(RateTable table) {
+        onRates(table);
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Rate alerts stopped: " + throwable.getMessage());
+    }
+    
+    @Override
+    public void onComplete() {
+    }
+}
\ No newline at end of file
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * Open/high/low/close bars of every currency at several resolutions
+ * Each refreshed snapshot (or streaming tick) updates the current bar of
+ * each resolution in O(1); when a rate falls into a new period the ring
+ * advances and the oldest bar is overwritten. Bars live in preallocated
+ * primitive arrays per currency and resolution, so aggregation allocates
+ * nothing after a currency is first seen, and queries read the last N bars
+ * directly without touching raw history.
+ *
+ * Rates are units of the currency per 1 unit of the base (USD by default).
+ */
+public class RateBars implements Flow.Subscriber<RateTable>, RateTickPipeline.TickHandler {
+    
+    public enum Resolution {
+        MINUTE(60000L, 1440),        // one day of minutes
+        HOUR(3600000L, 24 * 30),     // thirty days of hours
+        DAY(86400000L, 365);         // a year of days
+        
+        final long millis;
+        final int capacity;
+        
+        Resolution(long millis, int capacity) {
+            this.millis = millis;
+            this.capacity = capacity;
+        }
+    }
+    
+    /**
+     * One bar, as returned by queries
+     */
+    public static final class Bar {
+        public final long start;
+        public final double open;
+        public final double high;
+        public final double low;
+        public final double close;
+        
+        Bar(long start, double open, double high, double low, double close) {
+            this.start = start;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%tF %<tR  O %.6f  H %.6f  L %.6f  C %.6f", start, open, high, low, close);
+        }
+    }
+    
+    /**
+     * Ring of bars for one currency at one resolution; guarded by its monitor
+     */
+    static final class Series {
+        final long period;
+        final long[] start;
+        final double[] open;
+        final double[] high;
+        final double[] low;
+        final double[] close;
+        int head = -1;      // index of the current bar
+        int count;
+        
+        Series(Resolution resolution) {
+            period = resolution.millis;
+            start = new long[resolution.capacity];
+            open = new double[resolution.capacity];
+            high = new double[resolution.capacity];
+            low = new double[resolution.capacity];
+            close = new double[resolution.capacity];
+        }
+        
+        synchronized void update(double rate, long timestamp) {
+            long bucket = timestamp - Math.floorMod(timestamp, period);
+            
+            if (head >= 0 && bucket == start[head]) {
+                if (rate > high[head]) {
+                    high[head] = rate;
+                }
+                if (rate < low[head]) {
+                    low[head] = rate;
+                }
+                close[head] = rate;
+                return;
+            }
+            if (head >= 0 && bucket < start[head]) {
+                return; // late update for a closed bar
+            }
+            
+            head = (head + 1) % start.length;
+            if (count < start.length) {
+                count++;
+            }
+            start[head] = bucket;
+            open[head] = rate;
+            high[head] = rate;
+            low[head] = rate;
+            close[head] = rate;
+        }
+        
+        synchronized List<Bar> latest(int n) {
+            int size = Math.min(n, count);
+            List<Bar> bars = new ArrayList<>(size);
+            for (int i = size - 1; i >= 0; i--) {
+                int index = Math.floorMod(head - i, start.length);
+                bars.add(new Bar(start[index], open[index], high[index], low[index], close[index]));
+            }
+            return bars;
+        }
+    }
+    
+    private final String base;
+    private final Map<String, Series[]> series = new ConcurrentHashMap<>();
+    
+    public RateBars() {
+        this("USD");
+    }
+    
+    /**
+     * @param base Only snapshots quoted against this base are aggregated
+     */
+    public RateBars(String base) {
+        this.base = base;
+    }
+    
+    /**
+     * Subscribes to every snapshot the converter publishes
+     */
+    public RateBars attach() {
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(this);
+        return this;
+    }
+    
+    /**
+     * Adds one observed rate to every resolution
+     */
+    public void update(String currency, double rate, long timestamp) {
+        Series[] rings = series.get(currency);
+        if (rings == null) {
+            rings = series.computeIfAbsent(currency, k -> newRings());
+        }
+        for (Series ring : rings) {
+            ring.update(rate, timestamp);
+        }
+    }
+    
+    /**
+     * Adds every rate of a snapshot, stamped with the snapshot's time
+     */
+    public void update(RateTable table) {
+        long timestamp = table.getTimestamp();
+        for (int slot = 0; slot < table.size(); slot++) {
+            update(table.codeAt(slot), table.rateAt(slot), timestamp);
+        }
+    }
+    
+    /**
+     * The last n bars of a currency, oldest first (fewer if not yet filled)
+     */
+    public List<Bar> latest(String currency, Resolution resolution, int n) {
+        Series[] rings = series.get(currency);
+        if (rings == null) {
+            return Collections.emptyList();
+        }
+        return rings[resolution.ordinal()].latest(n);
+    }
+    
+    public String getBase() {
+        return base;
+    }
+    
+    private static Series[] newRings() {
+        Resolution[] resolutions = Resolution.values();
+        Series[] rings = new Series[resolutions.length];
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Series(resolutions[i]);
+        }
+        return rings;
+    }
+    
+    @Override
+    public void onTick(String currency, double rate, long timestamp, boolean endOfBatch) {
+        update(currency, rate, timestamp);
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(RateTable table) {
+        if (base.equals(table.getBase())) {
+            update(table);
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Rate bars stopped: " + throwable.getMessage());
+    }
+    
+    @Override
+    public void onComplete() {
+    }
+}
\ No newline at end of file
@@ -0,0 +1,366 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
+
+/**
+ * Shared rate cache for multi-node deployments
+ * One sidecar process owns all upstream fetching and serves rate snapshots
+ * to the converter JVMs on the host over a compact binary TCP protocol, so
+ * 40 instances cost one set of upstream requests and share one view.
+ *
+ * Every snapshot carries a version that changes whenever the sidecar's rates
+ * for that base change. Clients keep the snapshot in their own rate cache
+ * (near-cache) and revalidate it with the version they hold; an unchanged
+ * version costs a 17-byte answer. If the sidecar is unreachable, clients
+ * fall back to fetching directly.
+ *
+ * Protocol (big-endian, one request per round trip, connections reused):
+ *   request:  op(1) base(3 ASCII) knownVersion(8)
+ *   response: status(1) version(8) expiresAt(8)
+ *             [OK only] count(2) then count x (code(3 ASCII) rate(8))
+ *             [ERROR]   message (modified UTF-8) instead of version/expiry
+ *
+ * Run: java -cp ".;json-20230227.jar" RateCacheSidecar --port 9200
+ */
+public class RateCacheSidecar {
+    
+    static final byte OP_GET = 1;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_MODIFIED = 1;
+    static final byte STATUS_ERROR = 2;
+    
+    public static final int DEFAULT_PORT = 9200;
+    private static final int CONNECT_TIMEOUT = 500;
+    private static final int READ_TIMEOUT = 15000;
+    
+    /**
+     * Where the sidecar gets its rates from
+     */
+    public interface RateSource {
+        JSONObject load(String baseCurrency) throws Exception;
+    }
+    
+    /**
+     * Encoded snapshot of one base, shared by every connection
+     */
+    static final class Snapshot {
+        final long version;
+        final JSONObject source;
+        final byte[] encodedRates;
+        
+        Snapshot(long version, JSONObject source, byte[] encodedRates) {
+            this.version = version;
+            this.source = source;
+            this.encodedRates = encodedRates;
+        }
+    }
+    
+    /**
+     * Sidecar server: owns fetching, serves snapshots to peers
+     */
+    public static class Server {
+        private final RateSource source;
+        private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+        // Versions start from the boot time so a restarted sidecar never repeats one
+        private final long epoch = System.currentTimeMillis() << 16;
+        private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "sidecar-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+        private ServerSocket serverSocket;
+        
+        public Server(RateSource source) {
+            this.source = source;
+        }
+        
+        /**
+         * Binds and starts accepting on a background thread
+         * @return The bound port (useful with port 0)
+         */
+        public int start(int port) throws IOException {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress("127.0.0.1", port));
+            
+            Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        connections.execute(() -> serve(socket));
+                    } catch (IOException e) {
+                        // Closed while accepting
+                    }
+                }
+            }, "sidecar-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return serverSocket.getLocalPort();
+        }
+        
+        public void stop() throws IOException {
+            serverSocket.close();
+            for (Socket socket : open) {
+                socket.close();
+            }
+            connections.shutdownNow();
+        }
+        
+        private void serve(Socket socket) {
+            try (Socket s = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+                s.setTcpNoDelay(true);
+                open.add(s);
+                byte[] code = new byte[3];
+                
+                while (true) {
+                    byte op = in.readByte();
+                    in.readFully(code);
+                    long knownVersion = in.readLong();
+                    
+                    if (op != OP_GET) {
+                        out.writeByte(STATUS_ERROR);
+                        out.writeUTF("Unknown op " + op);
+                    } else {
+                        answer(new String(code, StandardCharsets.US_ASCII), knownVersion, out);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Peer closed the connection
+            } finally {
+                open.remove(socket);
+            }
+        }
+        
+        private void answer(String base, long knownVersion, DataOutputStream out) throws IOException {
+            // Peer demand drives what the sidecar keeps warm
+            RatePrefetcher.recordAccess(base);
+            
+            Snapshot snapshot;
+            try {
+                snapshot = snapshotFor(base);
+            } catch (Exception e) {
+                out.writeByte(STATUS_ERROR);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                return;
+            }
+            
+            long expiresAt = AdvancedAPICurrencyConverter.cacheExpiresAt(base);
+            if (snapshot.version == knownVersion) {
+                out.writeByte(STATUS_NOT_MODIFIED);
+                out.writeLong(snapshot.version);
+                out.writeLong(expiresAt);
+            } else {
+                out.writeByte(STATUS_OK);
+                out.writeLong(snapshot.version);
+                out.writeLong(expiresAt);
+                out.write(snapshot.encodedRates);
+            }
+        }
+        
+        /**
+         * Loads through the sidecar's own cache; re-encodes only when the
+         * underlying document changed
+         */
+        private Snapshot snapshotFor(String base) throws Exception {
+            JSONObject data = source.load(base);
+            Snapshot current = snapshots.get(base);
+            if (current != null && current.source == data) {
+                return current;
+            }
+            
+            synchronized (this) {
+                current = snapshots.get(base);
+                if (current != null && current.source == data) {
+                    return current;
+                }
+                long version = current == null ? epoch + 1 : current.version + 1;
+                Snapshot next = new Snapshot(version, data, encode(data.getJSONObject("rates")));
+                snapshots.put(base, next);
+                return next;
+            }
+        }
+    }
+    
+    static byte[] encode(JSONObject rates) {
+        int count = 0;
+        for (String code : rates.keySet()) {
+            if (code.length() == 3) {
+                count++;
+            }
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(2 + count * 11);
+        buffer.putShort((short) count);
+        for (String code : rates.keySet()) {
+            if (code.length() == 3) {
+                buffer.put(code.getBytes(StandardCharsets.US_ASCII));
+                buffer.putDouble(rates.getDouble(code));
+            }
+        }
+        return buffer.array();
+    }
+    
+    /**
+     * Result of a sidecar lookup
+     */
+    public static class Reply {
+        final boolean notModified;
+        final long version;
+        final long expiresAt;
+        final JSONObject data; // null when not modified
+        
+        Reply(boolean notModified, long version, long expiresAt, JSONObject data) {
+            this.notModified = notModified;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            this.data = data;
+        }
+    }
+    
+    /**
+     * Client with one persistent connection; reconnects on demand
+     */
+    public static class Client {
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        
+        public Client(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+        
+        /**
+         * Parses "host:port" (port optional)
+         */
+        public static Client parse(String address) {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                return new Client(address, DEFAULT_PORT);
+            }
+            return new Client(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        }
+        
+        /**
+         * Asks the sidecar for a base
+         * @param knownVersion Version held locally, or 0 for none
+         * @throws IOException if the sidecar is unreachable
+         * @throws Exception if the sidecar could not load the rates
+         */
+        public Reply get(String baseCurrency, long knownVersion) throws Exception {
+            return get(baseCurrency, knownVersion, READ_TIMEOUT);
+        }
+        
+        /**
+         * Asks the sidecar for a base, waiting at most timeoutMillis for the answer
+         */
+        public synchronized Reply get(String baseCurrency, long knownVersion, long timeoutMillis)
+                throws Exception {
+            if (baseCurrency.length() != 3) {
+                throw new Exception("Currency code must be 3 letters: " + baseCurrency);
+            }
+            
+            try {
+                connect();
+                socket.setSoTimeout((int) Math.max(1, Math.min(READ_TIMEOUT, timeoutMillis)));
+                out.writeByte(OP_GET);
+                out.write(baseCurrency.getBytes(StandardCharsets.US_ASCII));
+                out.writeLong(knownVersion);
+                out.flush();
+                
+                byte status = in.readByte();
+                if (status == STATUS_ERROR) {
+                    throw new Exception("Sidecar: " + in.readUTF());
+                }
+                
+                long version = in.readLong();
+                long expiresAt = in.readLong();
+                if (status == STATUS_NOT_MODIFIED) {
+                    return new Reply(true, version, expiresAt, null);
+                }
+                
+                int count = in.readUnsignedShort();
+                JSONObject rates = new JSONObject();
+                byte[] code = new byte[3];
+                for (int i = 0; i < count; i++) {
+                    in.readFully(code);
+                    rates.put(new String(code, StandardCharsets.US_ASCII), in.readDouble());
+                }
+                
+                JSONObject data = new JSONObject();
+                data.put("base", baseCurrency);
+                data.put("rates", rates);
+                return new Reply(false, version, expiresAt, data);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        
+        private void connect() throws IOException {
+            if (socket != null) {
+                return;
+            }
+            Socket s = new Socket();
+            s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            s.setTcpNoDelay(true);
+            socket = s;
+            in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        }
+        
+        public synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already gone
+                }
+                socket = null;
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            }
+        }
+        
+        Server server = new Server(base ->
+            AdvancedAPICurrencyConverter.getExchangeRates(base, FetchScheduler.Priority.REFRESH));
+        int bound = server.start(port);
+        System.out.println("Rate cache sidecar listening on 127.0.0.1:" + bound);
+        
+        // Keep the popular bases warm for all peers
+        List<String> popular = new ArrayList<>();
+        for (String[] curr : AdvancedAPICurrencyConverter.POPULAR_CURRENCIES) {
+            popular.add(curr[0]);
+        }
+        RatePrefetcher.start(popular);
+        
+        Thread.currentThread().join();
+    }
+}
\ No newline at end of file
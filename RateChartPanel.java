@@ -0,0 +1,481 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/**
+ * Line chart of one rate series, sized for millions of points
+ * When a series is set, a pyramid of Largest-Triangle-Three-Buckets
+ * reductions (each level a quarter of the one below) is built off the EDT.
+ * A redraw takes the coarsest level that still has at least two points per
+ * pixel in the visible window, reduces that window to the plot width with
+ * LTTB and draws it into a cached image, so its cost depends on the width of
+ * the panel, not the length of the series. The image is only redrawn when
+ * the view or the size changes.
+ *
+ * Mouse wheel zooms around the cursor, dragging pans, double-click resets.
+ */
+public class RateChartPanel extends JPanel {
+    
+    private static final long serialVersionUID = 1L;
+    private static final int COARSEST = 2048;      // stop reducing below this many points
+    private static final int MARGIN_LEFT = 90;
+    private static final int MARGIN_RIGHT = 20;
+    private static final int MARGIN_TOP = 30;
+    private static final int MARGIN_BOTTOM = 40;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+        .withZone(ZoneId.systemDefault());
+    private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Font LABEL_FONT = new Font("Arial", Font.PLAIN, 11);
+    private static final Color GRID = new Color(230, 230, 235);
+    private static final Color LINE = new Color(70, 130, 180);
+    
+    /**
+     * A series and its successively reduced copies; level 0 is the raw data
+     */
+    static final class Pyramid {
+        final double[][] x;
+        final double[][] y;
+        final int[] size;
+        
+        private Pyramid(List<double[]> xs, List<double[]> ys, List<Integer> sizes) {
+            x = xs.toArray(new double[0][]);
+            y = ys.toArray(new double[0][]);
+            size = new int[sizes.size()];
+            for (int i = 0; i < size.length; i++) {
+                size[i] = sizes.get(i);
+            }
+        }
+        
+        /**
+         * Builds all levels; call off the EDT for long series
+         */
+        static Pyramid of(RateHistory.Series series) {
+            int n = series.size();
+            long[] times = series.times();
+            double[] values = series.values();
+            
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = times[i];
+            }
+            List<double[]> xs = new ArrayList<>();
+            List<double[]> ys = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            xs.add(x);
+            ys.add(values);    // read-only, and never changed below size
+            sizes.add(n);
+            
+            while (n > COARSEST) {
+                int target = n / 4;
+                double[] nextX = new double[target];
+                double[] nextY = new double[target];
+                n = lttb(xs.get(xs.size() - 1), ys.get(ys.size() - 1), 0, n, target, nextX, nextY);
+                xs.add(nextX);
+                ys.add(nextY);
+                sizes.add(n);
+            }
+            return new Pyramid(xs, ys, sizes);
+        }
+        
+        double first() {
+            return size[0] == 0 ? 0 : x[0][0];
+        }
+        
+        double last() {
+            return size[0] == 0 ? 0 : x[0][size[0] - 1];
+        }
+    }
+    
+    private String title = "";
+    private String message = "No data";
+    private Pyramid data;
+    private double viewStart;
+    private double viewEnd;
+    
+    // Cached drawing and what it was drawn for
+    private BufferedImage image;
+    private Pyramid imageData;
+    private double imageStart;
+    private double imageEnd;
+    private int imagePoints;
+    
+    // Scratch buffers for the visible window, grown with the panel width
+    private double[] drawX = new double[0];
+    private double[] drawY = new double[0];
+    
+    private int dragX = -1;
+    
+    public RateChartPanel() {
+        setPreferredSize(new Dimension(900, 450));
+        setBackground(Color.WHITE);
+        
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+            }
+            
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragX = -1;
+            }
+            
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragX >= 0 && data != null) {
+                    double shift = (dragX - e.getX()) * (viewEnd - viewStart) / plotWidth(getWidth());
+                    dragX = e.getX();
+                    setView(viewStart + shift, viewEnd + shift);
+                }
+            }
+            
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && data != null) {
+                    setView(data.first(), data.last());
+                }
+            }
+            
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (data == null) {
+                    return;
+                }
+                double factor = Math.pow(1.25, e.getPreciseWheelRotation());
+                double span = viewEnd - viewStart;
+                double anchor = viewStart + span * Math.max(0, Math.min(1,
+                    (e.getX() - MARGIN_LEFT) / (double) plotWidth(getWidth())));
+                setView(anchor - (anchor - viewStart) * factor, anchor + (viewEnd - anchor) * factor);
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+    
+    /**
+     * Shows a series; reductions are built in the background
+     */
+    public void setSeries(String title, RateHistory.Series series) {
+        load(title, () -> series);
+    }
+    
+    /**
+     * Gets the series and builds its reductions in the background, showing
+     * a message until they are ready
+     */
+    public void load(String title, Supplier<RateHistory.Series> source) {
+        this.message = "Loading " + title + "...";
+        this.data = null;
+        repaint();
+        
+        new SwingWorker<Pyramid, Void>() {
+            @Override
+            protected Pyramid doInBackground() {
+                return Pyramid.of(source.get());
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    display(title, get());
+                } catch (Exception e) {
+                    message = "Cannot load " + title + ": " + e.getMessage();
+                    repaint();
+                }
+            }
+        }.execute();
+    }
+    
+    /**
+     * Shows prepared data over its full range; EDT only
+     */
+    void display(String title, Pyramid pyramid) {
+        this.title = title;
+        this.data = pyramid;
+        this.message = pyramid.size[0] < 2 ? "No history for " + title + " yet" : null;
+        this.viewStart = pyramid.first();
+        this.viewEnd = pyramid.last();
+        repaint();
+    }
+    
+    /**
+     * Moves the visible window, kept within the data
+     */
+    private void setView(double start, double end) {
+        double first = data.first();
+        double last = data.last();
+        double span = Math.min(last - first, Math.max(end - start, 1000));
+        start = Math.max(first, Math.min(start, last - span));
+        viewStart = start;
+        viewEnd = start + span;
+        repaint();
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (data == null || message != null) {
+            g.setColor(Color.GRAY);
+            g.drawString(message != null ? message : "No data", 20, 30);
+            return;
+        }
+        g.drawImage(render(getWidth(), getHeight()), 0, 0, null);
+    }
+    
+    /**
+     * The chart at the current view, redrawn only if the view, the data or
+     * the size changed since the last call
+     */
+    BufferedImage render(int width, int height) {
+        if (image != null && image.getWidth() == width && image.getHeight() == height
+                && imageData == data && imageStart == viewStart && imageEnd == viewEnd) {
+            return image;
+        }
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        }
+        imageData = data;
+        imageStart = viewStart;
+        imageEnd = viewEnd;
+        
+        int plotWidth = plotWidth(width);
+        int plotHeight = Math.max(1, height - MARGIN_TOP - MARGIN_BOTTOM);
+        int n = visiblePoints(plotWidth);
+        imagePoints = n;
+        
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            low = Math.min(low, drawY[i]);
+            high = Math.max(high, drawY[i]);
+        }
+        double pad = high > low ? (high - low) * 0.05 : Math.abs(high) * 0.001 + 1e-9;
+        low -= pad;
+        high += pad;
+        
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            // Only text is antialiased: at one point per pixel it would blur
+            // the line and cost far more than the rest of the redraw
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            
+            g.setColor(GRID);
+            for (int i = 0; i <= 4; i++) {
+                int y = MARGIN_TOP + plotHeight * i / 4;
+                g.drawLine(MARGIN_LEFT, y, MARGIN_LEFT + plotWidth, y);
+            }
+            g.setColor(Color.GRAY);
+            g.drawRect(MARGIN_LEFT, MARGIN_TOP, plotWidth, plotHeight);
+            
+            int[] px = new int[n];
+            int[] py = new int[n];
+            double xScale = plotWidth / (viewEnd - viewStart);
+            double yScale = plotHeight / (high - low);
+            for (int i = 0; i < n; i++) {
+                px[i] = MARGIN_LEFT + (int) Math.round((drawX[i] - viewStart) * xScale);
+                py[i] = MARGIN_TOP + plotHeight - (int) Math.round((drawY[i] - low) * yScale);
+            }
+            g.setClip(MARGIN_LEFT, MARGIN_TOP, plotWidth + 1, plotHeight + 1);
+            g.setColor(LINE);
+            g.drawPolyline(px, py, n);
+            g.setClip(null);
+            
+            g.setColor(Color.DARK_GRAY);
+            g.setFont(TITLE_FONT);
+            g.drawString(title, MARGIN_LEFT, MARGIN_TOP - 10);
+            g.setFont(LABEL_FONT);
+            String count = String.format("%,d points, %,d drawn", data.size[0], n);
+            g.drawString(count, MARGIN_LEFT + plotWidth - g.getFontMetrics().stringWidth(count), MARGIN_TOP - 10);
+            g.drawString(String.format("%.6g", high), 5, MARGIN_TOP + 10);
+            g.drawString(String.format("%.6g", low), 5, MARGIN_TOP + plotHeight);
+            String start = DATE.format(Instant.ofEpochMilli((long) viewStart));
+            String end = DATE.format(Instant.ofEpochMilli((long) viewEnd));
+            g.drawString(start, MARGIN_LEFT, MARGIN_TOP + plotHeight + 18);
+            g.drawString(end, MARGIN_LEFT + plotWidth - g.getFontMetrics().stringWidth(end), MARGIN_TOP + plotHeight + 18);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+    
+    /**
+     * Fills drawX/drawY with the visible window reduced to at most one point
+     * per pixel; returns the point count
+     */
+    private int visiblePoints(int plotWidth) {
+        // Coarsest level that still has two points per pixel in the window
+        int level = data.size.length - 1;
+        int from = 0;
+        int to = 0;
+        for (; level >= 0; level--) {
+            from = Math.max(0, lowerBound(data.x[level], data.size[level], viewStart) - 1);
+            to = Math.min(data.size[level], lowerBound(data.x[level], data.size[level], viewEnd) + 1);
+            if (to - from >= 2 * plotWidth || level == 0) {
+                break;
+            }
+        }
+        
+        int threshold = Math.max(3, plotWidth);
+        if (drawX.length < threshold) {
+            drawX = new double[threshold];
+            drawY = new double[threshold];
+        }
+        return lttb(data.x[level], data.y[level], from, to, threshold, drawX, drawY);
+    }
+    
+    /**
+     * First index whose x is not below the value
+     */
+    private static int lowerBound(double[] x, int size, double value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (x[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private static int plotWidth(int width) {
+        return Math.max(1, width - MARGIN_LEFT - MARGIN_RIGHT);
+    }
+    
+    /**
+     * Points drawn at the last render
+     */
+    int getDrawnPoints() {
+        return imagePoints;
+    }
+    
+    /**
+     * Largest-Triangle-Three-Buckets: reduces points [from, to) to at most
+     * threshold points that keep the shape of the line. The first and last
+     * points are kept; from each bucket in between, the point forming the
+     * largest triangle with the previously chosen point and the average of
+     * the next bucket is chosen.
+     * @return Number of points written to outX/outY
+     */
+    static int lttb(double[] x, double[] y, int from, int to, int threshold, double[] outX, double[] outY) {
+        int n = to - from;
+        if (n <= threshold || threshold < 3) {
+            System.arraycopy(x, from, outX, 0, n);
+            System.arraycopy(y, from, outY, 0, n);
+            return n;
+        }
+        
+        double every = (double) (n - 2) / (threshold - 2);
+        int chosen = from;
+        int out = 0;
+        outX[out] = x[from];
+        outY[out++] = y[from];
+        
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket (the last point for the final one)
+            int nextStart = from + (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min(from + (int) ((bucket + 2) * every) + 1, to);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            int count = nextEnd - nextStart;
+            avgX /= count;
+            avgY /= count;
+            
+            int start = from + (int) (bucket * every) + 1;
+            int end = from + (int) ((bucket + 1) * every) + 1;
+            double ax = x[chosen];
+            double ay = y[chosen];
+            double largest = -1;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                // Twice the triangle's area; the factor does not change the choice
+                double area = Math.abs((ax - avgX) * (y[i] - ay) - (ax - x[i]) * (avgY - ay));
+                if (area > largest) {
+                    largest = area;
+                    next = i;
+                }
+            }
+            outX[out] = x[next];
+            outY[out++] = y[next];
+            chosen = next;
+        }
+        
+        outX[out] = x[to - 1];
+        outY[out++] = y[to - 1];
+        return out;
+    }
+    
+    /**
+     * Opens a chart of fromCurrency -> toCurrency from the local history; the
+     * pair is joined and reduced in the background
+     */
+    public static void showChart(Component parent, RateHistory history, String fromCurrency, String toCurrency) {
+        String title = "1 " + fromCurrency + " in " + toCurrency;
+        RateChartPanel panel = new RateChartPanel();
+        panel.load(title, () -> history.pair(fromCurrency, toCurrency));
+        
+        Window owner = parent == null ? null : SwingUtilities.getWindowAncestor(parent);
+        JDialog dialog = new JDialog(owner, "Rate History - " + title);
+        dialog.add(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(parent);
+        dialog.setVisible(true);
+    }
+    
+    /**
+     * Demo on a synthetic random walk: --synthetic N (default 5,000,000
+     * one-minute ticks)
+     */
+    public static void main(String[] args) {
+        int n = 5_000_000;
+        int arg = Arrays.asList(args).indexOf("--synthetic");
+        if (arg >= 0 && arg + 1 < args.length) {
+            n = Integer.parseInt(args[arg + 1].replace("_", ""));
+        }
+        RateHistory.Series series = randomWalk(n, 42);
+        
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Rate Chart");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            RateChartPanel panel = new RateChartPanel();
+            panel.setSeries("Synthetic EUR/USD", series);
+            frame.add(panel);
+            frame.pack();
+            frame.setLocationRelativeTo(null);
+            frame.setVisible(true);
+        });
+    }
+    
+    /**
+     * One-minute ticks of a geometric random walk starting at 1.10
+     */
+    static RateHistory.Series randomWalk(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        RateHistory.Series series = new RateHistory.Series(n);
+        long time = System.currentTimeMillis() - n * 60000L;
+        double rate = 1.10;
+        for (int i = 0; i < n; i++) {
+            rate *= Math.exp(random.nextGaussian() * 0.0003);
+            series.append(time + i * 60000L, rate);
+        }
+        return series;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Per-currency consensus across several rate sources
+ * Responses from different providers are normalized to "units of code per
+ * 1 base", then each currency gets the median (or trimmed mean) of the
+ * values reported for it. Values too far from the median are flagged as
+ * outliers and left out of the consensus. Two sources cannot outvote each
+ * other, so when they disagree the currency keeps its last agreed value
+ * for that base while that value is younger than maxAgeMillis, and is left
+ * out (listed only under "outliers") otherwise. A currency quoted by a
+ * single source is passed through unchecked.
+ *
+ * The result has the usual {"base", "rates"} shape plus:
+ *   "contributors": {code: [source, ...]}
+ *   "outliers":     {code: {source: value}}
+ */
+public class RateConsensus {
+    
+    public enum Method { MEDIAN, TRIMMED_MEAN }
+    
+    private static final double DEFAULT_TOLERANCE = 0.02; // 2% from the median
+    private static final long DEFAULT_MAX_AGE = 3600000;  // same as the converter's cache
+    
+    /**
+     * A combined rate and when the sources last agreed on it
+     */
+    private static final class Agreed {
+        final double rate;
+        final long agreedAt;
+        
+        Agreed(double rate, long agreedAt) {
+            this.rate = rate;
+            this.agreedAt = agreedAt;
+        }
+    }
+    
+    private final Method method;
+    private final double tolerance;
+    private final long maxAgeMillis;
+    // Base -> last agreed rates, the fallback for disputed pairs
+    private final Map<String, Map<String, Agreed>> previous = new ConcurrentHashMap<>();
+    
+    public RateConsensus() {
+        this(Method.MEDIAN, DEFAULT_TOLERANCE);
+    }
+    
+    public RateConsensus(Method method, double tolerance) {
+        this(method, tolerance, DEFAULT_MAX_AGE);
+    }
+    
+    /**
+     * @param maxAgeMillis How long a disputed currency may keep its last
+     *        agreed value
+     */
+    public RateConsensus(Method method, double tolerance, long maxAgeMillis) {
+        this.method = method;
+        this.tolerance = tolerance;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+    
+    /**
+     * Normalizes a provider response into code -> rate per 1 base
+     * Handles both the exchangerate-api shape and Frankfurter's, which
+     * omits the base currency and may quote for an "amount" other than 1.
+     */
+    public static Map<String, Double> normalize(JSONObject data, String baseCurrency) {
+        double amount = data.has("amount") ? data.getDouble("amount") : 1.0;
+        if (!(amount > 0)) {
+            amount = 1.0;
+        }
+        
+        JSONObject rates = data.getJSONObject("rates");
+        Map<String, Double> normalized = new TreeMap<>();
+        for (String code : rates.keySet()) {
+            double rate = rates.getDouble(code) / amount;
+            if (rate > 0 && !Double.isInfinite(rate)) {
+                normalized.put(code.toUpperCase(), rate);
+            }
+        }
+        normalized.put(baseCurrency, 1.0);
+        return normalized;
+    }
+    
+    /**
+     * Combines normalized responses
+     * @param baseCurrency Base all responses were requested for
+     * @param bySource Source name -> normalized rates (iteration order is kept)
+     */
+    public JSONObject combine(String baseCurrency, Map<String, Map<String, Double>> bySource) {
+        Map<String, List<String>> reporters = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Double>> source : bySource.entrySet()) {
+            for (String code : source.getValue().keySet()) {
+                reporters.computeIfAbsent(code, k -> new ArrayList<>()).add(source.getKey());
+            }
+        }
+        
+        JSONObject rates = new JSONObject();
+        JSONObject contributors = new JSONObject();
+        JSONObject outliers = new JSONObject();
+        Map<String, Agreed> last = previous.getOrDefault(baseCurrency, Collections.emptyMap());
+        Map<String, Agreed> combined = new TreeMap<>();
+        long now = System.currentTimeMillis();
+        
+        for (Map.Entry<String, List<String>> entry : reporters.entrySet()) {
+            String code = entry.getKey();
+            if (code.equals(baseCurrency)) {
+                continue;
+            }
+            
+            List<String> sources = entry.getValue();
+            double[] values = new double[sources.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = bySource.get(sources.get(i)).get(code);
+            }
+            double median = median(values.clone());
+            
+            // Split into agreeing values and outliers
+            List<Double> agreeing = new ArrayList<>();
+            JSONArray used = new JSONArray();
+            JSONObject flagged = new JSONObject();
+            for (int i = 0; i < values.length; i++) {
+                if (values.length > 2 && Math.abs(values[i] - median) / median > tolerance) {
+                    flagged.put(sources.get(i), values[i]);
+                } else {
+                    agreeing.add(values[i]);
+                    used.put(sources.get(i));
+                }
+            }
+            
+            // Two sources cannot outvote each other; averaging would pass half of a bad value on
+            if (values.length == 2 && Math.abs(values[0] - values[1]) / median > tolerance) {
+                JSONObject disputed = new JSONObject();
+                disputed.put(sources.get(0), values[0]);
+                disputed.put(sources.get(1), values[1]);
+                outliers.put(code, disputed);
+                // Kept with its original time, so a lasting dispute runs it out
+                Agreed kept = last.get(code);
+                if (kept != null && now - kept.agreedAt < maxAgeMillis) {
+                    rates.put(code, kept.rate);
+                    combined.put(code, kept);
+                    contributors.put(code, new JSONArray().put("previous"));
+                }
+                continue;
+            }
+            
+            double value = method == Method.MEDIAN ? median(toArray(agreeing)) : trimmedMean(toArray(agreeing));
+            rates.put(code, value);
+            combined.put(code, new Agreed(value, now));
+            contributors.put(code, used);
+            if (flagged.length() > 0) {
+                outliers.put(code, flagged);
+            }
+        }
+        previous.put(baseCurrency, combined);
+        
+        JSONObject data = new JSONObject();
+        data.put("base", baseCurrency);
+        data.put("rates", rates);
+        data.put("contributors", contributors);
+        data.put("outliers", outliers);
+        data.put("sources", new JSONArray(bySource.keySet()));
+        return data;
+    }
+    
+    static double median(double[] values) {
+        Arrays.sort(values);
+        int mid = values.length / 2;
+        return values.length % 2 == 1 ? values[mid] : (values[mid - 1] + values[mid]) / 2;
+    }
+    
+    /**
+     * Mean after dropping the top and bottom 20% (at least one each side
+     * once there are five or more values)
+     */
+    static double trimmedMean(double[] values) {
+        Arrays.sort(values);
+        int trim = values.length >= 5 ? Math.max(1, values.length / 5) : 0;
+        double sum = 0;
+        for (int i = trim; i < values.length - trim; i++) {
+            sum += values[i];
+        }
+        return sum / (values.length - 2 * trim);
+    }
+    
+    private static double[] toArray(List<Double> list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i);
+        }
+        return values;
+    }
+    
+    /**
+     * Lists currencies with flagged values, for display
+     */
+    public static List<String> outlierCodes(JSONObject consensus) {
+        if (!consensus.has("outliers")) {
+            return Collections.emptyList();
+        }
+        List<String> codes = new ArrayList<>(consensus.getJSONObject("outliers").keySet());
+        Collections.sort(codes);
+        return codes;
+    }
+}
\ No newline at end of file
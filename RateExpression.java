@@ -0,0 +1,394 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Compiled pricing formulas over amounts and currencies
+ * A formula is parsed once into a tree of closures. Every conversion in it
+ * becomes a numbered factor; binding the formula to a RateTable resolves
+ * each factor to a plain double (one slot lookup per conversion), so
+ * evaluation is arithmetic on arrays with no string or map access. When
+ * rates refresh, only the factors are recomputed.
+ *
+ * Grammar:
+ *   formula := sum ('->' CODE)*          conversion binds loosest
+ *   sum     := product (('+' | '-') product)*
+ *   product := unary (('*' | '/') unary)*
+ *   unary   := '-' unary | primary
+ *   primary := NUMBER [CODE] | name [CODE] | '(' formula ')'
+ * A CODE after a number or variable makes it an amount in that currency;
+ * without one it is a plain number. Amounts may only be added to amounts in
+ * the same currency, and multiplied or divided by plain numbers.
+ *
+ * Example: "0.985 * (amount EUR -> USD) + 2.50 USD -> JPY"
+ */
+public class RateExpression {
+    
+    /**
+     * Compiled node; factors come from the current binding
+     */
+    interface Node {
+        double eval(double[] factors, double[] variables);
+    }
+    
+    private final String source;
+    private final Node root;
+    private final String currency;                    // result currency, null for a plain number
+    private final List<String> variables;
+    private final List<String[]> conversions;         // factor index -> {from, to}
+    
+    private RateExpression(String source, Node root, String currency, List<String> variables,
+            List<String[]> conversions) {
+        this.source = source;
+        this.root = root;
+        this.currency = currency;
+        this.variables = variables;
+        this.conversions = conversions;
+    }
+    
+    /**
+     * Parses and compiles a formula
+     * @throws IllegalArgumentException on syntax or currency errors
+     */
+    public static RateExpression compile(String formula) {
+        Parser parser = new Parser(formula);
+        Typed result = parser.formula();
+        parser.expectEnd();
+        return new RateExpression(formula, result.node, result.currency,
+            Collections.unmodifiableList(parser.variables), Collections.unmodifiableList(parser.conversions));
+    }
+    
+    /**
+     * Variable names in the order evaluate() takes their values
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+    
+    /**
+     * Currency of the result, or null if it is a plain number
+     */
+    public String getCurrency() {
+        return currency;
+    }
+    
+    /**
+     * Resolves every conversion against a rate snapshot
+     * @throws IllegalArgumentException if the table lacks a currency
+     */
+    public Binding bind(RateTable rates) {
+        double[] factors = new double[conversions.size()];
+        for (int i = 0; i < factors.length; i++) {
+            String from = conversions.get(i)[0];
+            String to = conversions.get(i)[1];
+            int fromSlot = rates.slotOf(from);
+            int toSlot = rates.slotOf(to);
+            if (fromSlot < 0 || toSlot < 0) {
+                throw new IllegalArgumentException("No rate for " + (fromSlot < 0 ? from : to));
+            }
+            factors[i] = rates.rateAt(toSlot) / rates.rateAt(fromSlot);
+        }
+        return new Binding(rates, factors);
+    }
+    
+    /**
+     * The formula bound to one snapshot; immutable and thread-safe
+     */
+    public final class Binding {
+        private final RateTable rates;
+        private final double[] factors;
+        
+        Binding(RateTable rates, double[] factors) {
+            this.rates = rates;
+            this.factors = factors;
+        }
+        
+        /**
+         * @param values One value per variable, in getVariables() order
+         */
+        public double evaluate(double... values) {
+            if (values.length != variables.size()) {
+                throw new IllegalArgumentException("Expected " + variables.size() + " values, got " + values.length);
+            }
+            return root.eval(factors, values);
+        }
+        
+        public RateTable getRates() {
+            return rates;
+        }
+    }
+    
+    /**
+     * Keeps a binding current: rebinds whenever the converter publishes a
+     * snapshot quoted against the given base
+     */
+    public Live track(String base) {
+        Live live = new Live(base);
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(live);
+        return live;
+    }
+    
+    public final class Live implements Flow.Subscriber<RateTable> {
+        private final String base;
+        private volatile Binding binding;
+        
+        Live(String base) {
+            this.base = base;
+        }
+        
+        /**
+         * Evaluates against the latest snapshot
+         * @throws IllegalStateException before the first snapshot arrives
+         */
+        public double evaluate(double... values) {
+            Binding current = binding;
+            if (current == null) {
+                throw new IllegalStateException("No " + base + " rates yet for " + source);
+            }
+            return current.evaluate(values);
+        }
+        
+        public void rebind(RateTable rates) {
+            binding = bind(rates);
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+        
+        @Override
+        public void onNext(RateTable rates) {
+            if (base.equals(rates.getBase())) {
+                try {
+                    rebind(rates);
+                } catch (IllegalArgumentException e) {
+                    // Keep the previous binding until a table quotes every currency
+                }
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+        }
+        
+        @Override
+        public void onComplete() {
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return source;
+    }
+    
+    /**
+     * Node plus the currency it is denominated in (null: plain number)
+     */
+    private static final class Typed {
+        final Node node;
+        final String currency;
+        
+        Typed(Node node, String currency) {
+            this.node = node;
+            this.currency = currency;
+        }
+    }
+    
+    /**
+     * Recursive-descent parser that compiles as it goes
+     */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+        final List<String> variables = new ArrayList<>();
+        final List<String[]> conversions = new ArrayList<>();
+        
+        Parser(String text) {
+            this.text = text;
+        }
+        
+        Typed formula() {
+            Typed value = sum();
+            while (accept("->") || accept("→")) {
+                String to = code();
+                if (to == null) {
+                    throw error("Currency code expected after ->");
+                }
+                if (value.currency == null) {
+                    throw error("Cannot convert a plain number to " + to);
+                }
+                if (!value.currency.equals(to)) {
+                    int factor = conversions.size();
+                    conversions.add(new String[] { value.currency, to });
+                    Node inner = value.node;
+                    value = new Typed((f, v) -> inner.eval(f, v) * f[factor], to);
+                }
+            }
+            return value;
+        }
+        
+        private Typed sum() {
+            Typed left = product();
+            while (true) {
+                boolean plus = accept("+");
+                if (!plus && !peekMinus()) {
+                    return left;
+                }
+                if (!plus) {
+                    pos++;
+                }
+                Typed right = product();
+                if (!same(left.currency, right.currency)) {
+                    throw error("Cannot add " + describe(left) + " and " + describe(right));
+                }
+                Node a = left.node;
+                Node b = right.node;
+                left = new Typed(plus ? (f, v) -> a.eval(f, v) + b.eval(f, v)
+                                      : (f, v) -> a.eval(f, v) - b.eval(f, v), left.currency);
+            }
+        }
+        
+        private Typed product() {
+            Typed left = unary();
+            while (true) {
+                boolean times = accept("*");
+                if (!times && !accept("/")) {
+                    return left;
+                }
+                Typed right = unary();
+                Node a = left.node;
+                Node b = right.node;
+                String currency;
+                if (times) {
+                    if (left.currency != null && right.currency != null) {
+                        throw error("Cannot multiply two amounts");
+                    }
+                    currency = left.currency != null ? left.currency : right.currency;
+                    left = new Typed((f, v) -> a.eval(f, v) * b.eval(f, v), currency);
+                } else {
+                    if (right.currency != null && !right.currency.equals(left.currency)) {
+                        throw error("Cannot divide by " + describe(right));
+                    }
+                    // Same-currency ratio is a plain number
+                    currency = right.currency != null ? null : left.currency;
+                    left = new Typed((f, v) -> a.eval(f, v) / b.eval(f, v), currency);
+                }
+            }
+        }
+        
+        private Typed unary() {
+            if (accept("-")) {
+                Typed inner = unary();
+                Node node = inner.node;
+                return new Typed((f, v) -> -node.eval(f, v), inner.currency);
+            }
+            return primary();
+        }
+        
+        private Typed primary() {
+            skipSpaces();
+            if (accept("(")) {
+                Typed inner = formula();
+                if (!accept(")")) {
+                    throw error("')' expected");
+                }
+                return inner;
+            }
+            
+            if (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                int start = pos;
+                while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                    pos++;
+                }
+                double value;
+                try {
+                    value = Double.parseDouble(text.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw error("Bad number " + text.substring(start, pos));
+                }
+                return new Typed((f, v) -> value, code());
+            }
+            
+            if (pos < text.length() && Character.isLowerCase(text.charAt(pos))) {
+                int start = pos;
+                while (pos < text.length() && Character.isLetterOrDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                String name = text.substring(start, pos);
+                int index = variables.indexOf(name);
+                if (index < 0) {
+                    index = variables.size();
+                    variables.add(name);
+                }
+                int slot = index;
+                return new Typed((f, v) -> v[slot], code());
+            }
+            
+            throw error("Number, variable or '(' expected");
+        }
+        
+        /**
+         * Optional currency code: three upper-case letters
+         */
+        private String code() {
+            skipSpaces();
+            if (pos + 3 <= text.length()
+                    && Character.isUpperCase(text.charAt(pos))
+                    && Character.isUpperCase(text.charAt(pos + 1))
+                    && Character.isUpperCase(text.charAt(pos + 2))
+                    && (pos + 3 == text.length() || !Character.isLetterOrDigit(text.charAt(pos + 3)))) {
+                String code = text.substring(pos, pos + 3);
+                pos += 3;
+                return code;
+            }
+            return null;
+        }
+        
+        /**
+         * A '-' that is subtraction rather than the start of '->'
+         */
+        private boolean peekMinus() {
+            skipSpaces();
+            return pos < text.length() && text.charAt(pos) == '-' && !text.startsWith("->", pos);
+        }
+        
+        private boolean accept(String token) {
+            skipSpaces();
+            if (token.equals("-") && text.startsWith("->", pos)) {
+                return false;
+            }
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+        
+        void expectEnd() {
+            skipSpaces();
+            if (pos < text.length()) {
+                throw error("Unexpected '" + text.charAt(pos) + "'");
+            }
+        }
+        
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+        
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+        
+        private static String describe(Typed value) {
+            return value.currency == null ? "a plain number" : "an amount in " + value.currency;
+        }
+        
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in \"" + text + "\"");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,250 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * HTTP fetch layer for the rate APIs
+ * - Sends ETag / Last-Modified validators and reports 304 Not Modified
+ * - Requests gzip/deflate and decompresses while parsing, without
+ *   buffering the whole body into a String first
+ * - Works out how long a response stays fresh from the payload's
+ *   time_next_update_unix, Cache-Control max-age or Expires
+ */
+public class RateFetcher {
+    
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final long MIN_FRESHNESS = 60000;      // 1 minute
+    private static final long MAX_FRESHNESS = 86400000;   // 1 day
+    
+    /**
+     * Outcome of one request
+     */
+    public static class Response {
+        final int status;
+        final JSONObject data;       // null on 304
+        final String etag;
+        final String lastModified;
+        final long expiresAt;
+        final long headerExpiry;     // Cache-Control / Expires alone, or -1
+        
+        Response(int status, JSONObject data, String etag, String lastModified, long expiresAt,
+                long headerExpiry) {
+            this.status = status;
+            this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+            this.headerExpiry = headerExpiry;
+        }
+        
+        boolean isNotModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+    }
+    
+    /**
+     * Non-2xx answer from upstream; carries Retry-After for 429 / 503
+     */
+    public static class HttpStatusException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        final long retryAfterMillis;
+        
+        HttpStatusException(int status, long retryAfterMillis) {
+            super("HTTP " + status);
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+        
+        boolean isRateLimited() {
+            return status == 429;
+        }
+    }
+    
+    /**
+     * Fetches a URL, revalidating with the given validators when present
+     * @param etag ETag of the cached copy, or null
+     * @param lastModified Last-Modified of the cached copy, or null
+     * @param defaultTtl Freshness to use when upstream gives no hint
+     */
+    public static Response fetch(String urlString, String etag, String lastModified, long defaultTtl)
+            throws Exception {
+        return fetch(urlString, etag, lastModified, defaultTtl, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Fetches a URL with socket timeouts cut down to the caller's remaining budget
+     * @param timeoutMillis Time left before the caller's deadline
+     */
+    public static Response fetch(String urlString, String etag, String lastModified, long defaultTtl,
+            long timeoutMillis) throws Exception {
+        URL url = new URL(urlString);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("GET");
+        conn.setConnectTimeout((int) Math.max(1, Math.min(CONNECT_TIMEOUT, timeoutMillis)));
+        conn.setReadTimeout((int) Math.max(1, Math.min(READ_TIMEOUT, timeoutMillis)));
+        conn.setUseCaches(false);
+        conn.setRequestProperty("User-Agent", "Mozilla/5.0");
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (etag != null) {
+            conn.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        
+        // Bodies, error bodies included, are always read to the end and closed
+        // (never disconnect()), so the keep-alive connection is reused across bases
+        int responseCode = conn.getResponseCode();
+        long now = System.currentTimeMillis();
+        
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new Response(responseCode, null,
+                headerOr(conn, "ETag", etag), headerOr(conn, "Last-Modified", lastModified),
+                freshUntil(conn, null, now, defaultTtl), headerExpiry(conn, now));
+        }
+        
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            long retryAfter = retryAfterMillis(conn.getHeaderField("Retry-After"));
+            drain(conn.getErrorStream());
+            throw new HttpStatusException(responseCode, retryAfter);
+        }
+        
+        JSONObject data;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(decode(conn), StandardCharsets.UTF_8))) {
+            data = new JSONObject(new JSONTokener(reader));
+        }
+        
+        return new Response(responseCode, data,
+            conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+            freshUntil(conn, data, now, defaultTtl), headerExpiry(conn, now));
+    }
+    
+    /**
+     * Reads an error body to the end so its connection can go back to the pool
+     */
+    private static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0) {
+                // discard
+            }
+        } catch (IOException e) {
+            // The connection is dropped instead of reused
+        }
+    }
+    
+    /**
+     * Wraps the body stream according to Content-Encoding
+     */
+    private static InputStream decode(HttpURLConnection conn) throws Exception {
+        InputStream in = conn.getInputStream();
+        String encoding = conn.getContentEncoding();
+        if (encoding == null) {
+            return in;
+        }
+        
+        encoding = encoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(in, 8192);
+        }
+        if (encoding.equals("deflate")) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+    
+    /**
+     * Absolute expiry time for a response
+     * The provider's own schedule wins over HTTP caching headers, which win
+     * over the caller's default. The result is kept within sane bounds.
+     */
+    static long freshUntil(HttpURLConnection conn, JSONObject data, long now, long defaultTtl) {
+        long expiresAt = -1;
+        
+        if (data != null && data.has("time_next_update_unix")) {
+            expiresAt = data.getLong("time_next_update_unix") * 1000;
+        }
+        
+        if (expiresAt < 0) {
+            expiresAt = headerExpiry(conn, now);
+        }
+        
+        if (expiresAt < 0) {
+            expiresAt = now + defaultTtl;
+        }
+        
+        return Math.max(now + MIN_FRESHNESS, Math.min(now + MAX_FRESHNESS, expiresAt));
+    }
+    
+    /**
+     * Expiry from Cache-Control max-age, else Expires, or -1 if neither is sent
+     */
+    static long headerExpiry(HttpURLConnection conn, long now) {
+        long maxAge = maxAge(conn.getHeaderField("Cache-Control"));
+        if (maxAge >= 0) {
+            return now + maxAge * 1000;
+        }
+        long expires = conn.getHeaderFieldDate("Expires", -1);
+        return expires > 0 ? expires : -1;
+    }
+    
+    /**
+     * Seconds from a Cache-Control header (max-age, or 0 for no-cache /
+     * no-store), or -1 when the header says nothing about freshness
+     */
+    static long maxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring(8).replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Retry-After in milliseconds (delta-seconds form only), or -1
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private static String headerOr(HttpURLConnection conn, String name, String fallback) {
+        String value = conn.getHeaderField(name);
+        return value != null ? value : fallback;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hot-reloadable rate file for the offline converters
+ * Rates are read from a plain text file and the file's directory is watched;
+ * when the file changes it is parsed on the watcher thread and the new rates
+ * replace the old ones with a single reference swap. A conversion reads one
+ * Rates snapshot and therefore never sees a half-updated table. A file that
+ * fails to parse is reported and ignored, and the previous rates stay live.
+ *
+ * File format (relative to USD, one currency per line, # starts a comment):
+ *   USD 1.0    US Dollar
+ *   EUR 0.92   Euro
+ */
+public class RateFileWatcher {
+    
+    public static final String DEFAULT_FILE = "rates.txt";
+    private static final String BASE = "USD";
+    private static final long SETTLE_TIME = 100; // let a file being written finish
+    
+    /**
+     * Immutable rates plus display names, in file order
+     */
+    public static final class Rates {
+        public final RateTable table;
+        public final Map<String, String> names;
+        
+        Rates(RateTable table, Map<String, String> names) {
+            this.table = table;
+            this.names = names;
+        }
+        
+        /**
+         * Builds a snapshot from code -> rate and code -> name maps
+         */
+        public static Rates of(Map<String, Double> rates, Map<String, String> names, long version) {
+            Map<String, String> ordered = new LinkedHashMap<>();
+            for (String code : rates.keySet()) {
+                ordered.put(code, names.getOrDefault(code, code));
+            }
+            return new Rates(RateTable.of(BASE, rates, version, System.currentTimeMillis()),
+                Collections.unmodifiableMap(ordered));
+        }
+        
+        public double convert(double amount, String fromCode, String toCode) {
+            return amount * table.crossRate(fromCode, toCode);
+        }
+    }
+    
+    private final Path file;
+    private final List<Consumer<Rates>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Rates current;
+    private WatchService watchService;
+    
+    /**
+     * @param defaults Rates to use until (or unless) the file can be read
+     */
+    public RateFileWatcher(Path file, Rates defaults) {
+        this.file = file.toAbsolutePath();
+        this.current = defaults;
+        
+        if (Files.exists(this.file)) {
+            reload();
+        }
+    }
+    
+    /**
+     * Watcher for DEFAULT_FILE, or the file named by -Drates.file
+     */
+    public static RateFileWatcher forDefaultFile(Rates defaults) {
+        return new RateFileWatcher(Paths.get(System.getProperty("rates.file", DEFAULT_FILE)), defaults);
+    }
+    
+    /**
+     * Current snapshot; read it once per conversion
+     */
+    public Rates current() {
+        return current;
+    }
+    
+    /**
+     * Called on the watcher thread after every successful reload
+     */
+    public void addListener(Consumer<Rates> listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Starts watching the file on a daemon thread
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        
+        WatchService service = watchService;
+        Thread watcher = new Thread(() -> watch(service), "rate-file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+    
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            watchService = null;
+        }
+    }
+    
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && file.getFileName().equals(context)) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                
+                if (changed) {
+                    // Writers often produce several events; wait for them to settle
+                    Thread.sleep(SETTLE_TIME);
+                    WatchKey more;
+                    while ((more = service.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+    
+    /**
+     * Parses the file and swaps in the new rates; keeps the old ones on error
+     * @return true if new rates were installed
+     */
+    public boolean reload() {
+        Rates next;
+        try {
+            next = parse(file, current == null ? 1 : current.table.getVersion() + 1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Rate file " + file + " not loaded: " + e.getMessage());
+            return false;
+        }
+        
+        current = next;
+        for (Consumer<Rates> listener : listeners) {
+            listener.accept(next);
+        }
+        return true;
+    }
+    
+    static Rates parse(Path file, long version) throws IOException {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        Map<String, String> names = new LinkedHashMap<>();
+        
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int hash = line.indexOf('#');
+                if (hash >= 0) {
+                    line = line.substring(0, hash);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                
+                String[] parts = line.split("\\s+", 3);
+                if (parts.length < 2 || parts[0].length() != 3) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": expected CODE RATE [Name]");
+                }
+                
+                String code = parts[0].toUpperCase();
+                double rate;
+                try {
+                    rate = Double.parseDouble(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": bad rate " + parts[1]);
+                }
+                if (!(rate > 0) || Double.isInfinite(rate)) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": rate must be positive");
+                }
+                
+                rates.put(code, rate);
+                names.put(code, parts.length > 2 ? parts[2] : code);
+            }
+        }
+        
+        if (rates.isEmpty()) {
+            throw new IllegalArgumentException("no rates");
+        }
+        if (!rates.containsKey(BASE)) {
+            rates.put(BASE, 1.0);
+            names.put(BASE, "US Dollar");
+        }
+        return Rates.of(rates, names, version);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,309 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import org.json.JSONObject;
+
+/**
+ * Locally kept rate history for charts
+ * Each currency has its own series of (time, units per USD) in growable
+ * primitive arrays, appended by one writer and read by any thread up to
+ * the published size. A pair's history is joined from its two series on
+ * matching timestamps, so only the currencies actually quoted are stored.
+ * With a file, history is loaded at start and every recorded snapshot is
+ * appended to it as lines of "epochMillis,CODE,rate".
+ */
+public class RateHistory implements Flow.Subscriber<RateTable>, Closeable {
+    
+    public static final String DEFAULT_FILE = "rate-history.csv";
+    private static final String BASE = "USD";
+    
+    /**
+     * Times and values of one series; entries below size never change
+     */
+    public static final class Series {
+        private long[] times;
+        private double[] values;
+        private volatile int size;
+        
+        public Series() {
+            this(64);
+        }
+        
+        public Series(int capacity) {
+            times = new long[Math.max(16, capacity)];
+            values = new double[Math.max(16, capacity)];
+        }
+        
+        /**
+         * Wraps filled arrays without copying
+         */
+        Series(long[] times, double[] values, int size) {
+            this.times = times;
+            this.values = values;
+            this.size = size;
+        }
+        
+        /**
+         * Single writer; points not newer than the last one are dropped
+         * @return Whether the point was added
+         */
+        public synchronized boolean append(long time, double value) {
+            int n = size;
+            if (n > 0 && time <= times[n - 1]) {
+                return false; // already recorded, or a replayed older snapshot
+            }
+            if (n == times.length) {
+                times = Arrays.copyOf(times, n * 2);
+                values = Arrays.copyOf(values, n * 2);
+            }
+            times[n] = time;
+            values[n] = value;
+            size = n + 1;
+            return true;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        /**
+         * Arrays valid up to size(); read size first, then the arrays
+         */
+        public synchronized long[] times() {
+            return times;
+        }
+        
+        public synchronized double[] values() {
+            return values;
+        }
+    }
+    
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final Path file;
+    private BufferedWriter writer;
+    private boolean closed;
+    
+    /**
+     * History kept in memory only
+     */
+    public RateHistory() {
+        this.file = null;
+    }
+    
+    /**
+     * History loaded from and appended to a file; a missing file is created
+     * on the first snapshot
+     */
+    public RateHistory(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            load(file);
+        }
+    }
+    
+    /**
+     * rate-history.csv in the working directory, or -Drates.history
+     */
+    public static RateHistory forDefaultFile() throws IOException {
+        return new RateHistory(Paths.get(System.getProperty("rates.history", DEFAULT_FILE)));
+    }
+    
+    /**
+     * Subscribes to every snapshot the converter publishes
+     */
+    public RateHistory attach() {
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(this);
+        return this;
+    }
+    
+    /**
+     * Adds a snapshot at its own timestamp
+     */
+    public void record(RateTable table) {
+        record(table, table.getTimestamp());
+    }
+    
+    /**
+     * Adds a fetched API document, timed by when the provider published it,
+     * so fetching the same publication again adds nothing
+     */
+    public void record(JSONObject data) {
+        if (!data.has("base") || data.optJSONObject("rates") == null) {
+            return;
+        }
+        RateTable table = RateTable.fromJSON(data);
+        record(table, AdaptiveTtl.publishedAt(data, table.getTimestamp()));
+    }
+    
+    /**
+     * Adds a snapshot; tables in another base are converted to USD if
+     * they quote it, and skipped otherwise
+     */
+    public synchronized void record(RateTable table, long time) {
+        int usd = table.slotOf(BASE);
+        if (usd < 0) {
+            return;
+        }
+        double perUsd = table.rateAt(usd);
+        
+        try {
+            if (file != null && writer == null && !closed) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (int slot = 0; slot < table.size(); slot++) {
+                String code = table.codeAt(slot);
+                if (code.equals(BASE)) {
+                    continue;
+                }
+                double rate = table.rateAt(slot) / perUsd;
+                boolean added = series.computeIfAbsent(code, k -> new Series()).append(time, rate);
+                if (added && writer != null) {
+                    writer.write(Long.toString(time));
+                    writer.write(',');
+                    writer.write(code);
+                    writer.write(',');
+                    writer.write(Double.toString(rate));
+                    writer.newLine();
+                }
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Rate history not saved: " + e.getMessage());
+            writer = null;
+        }
+    }
+    
+    /**
+     * Series of one currency against USD, or null if never seen
+     */
+    public Series get(String currency) {
+        return series.get(currency);
+    }
+    
+    /**
+     * Units of toCurrency per 1 fromCurrency at every time both were quoted
+     */
+    public Series pair(String fromCurrency, String toCurrency) {
+        Series from = fromCurrency.equals(BASE) ? null : series.get(fromCurrency);
+        Series to = toCurrency.equals(BASE) ? null : series.get(toCurrency);
+        if ((from == null && !fromCurrency.equals(BASE)) || (to == null && !toCurrency.equals(BASE))) {
+            return new Series(16);
+        }
+        
+        // Size first, then arrays: everything below size is complete
+        int fromSize = from == null ? 0 : from.size();
+        int toSize = to == null ? 0 : to.size();
+        long[] fromTimes = from == null ? null : from.times();
+        double[] fromValues = from == null ? null : from.values();
+        long[] toTimes = to == null ? null : to.times();
+        double[] toValues = to == null ? null : to.values();
+        
+        if (from == null || to == null) {
+            // One leg is USD itself
+            boolean invert = to == null;
+            int n = invert ? fromSize : toSize;
+            long[] times = invert ? fromTimes : toTimes;
+            double[] values = invert ? fromValues : toValues;
+            double[] rates = new double[n];
+            for (int i = 0; i < n; i++) {
+                rates[i] = invert ? 1 / values[i] : values[i];
+            }
+            return new Series(Arrays.copyOf(times, n), rates, n);
+        }
+        
+        long[] times = new long[Math.min(fromSize, toSize)];
+        double[] rates = new double[times.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < fromSize && j < toSize) {
+            if (fromTimes[i] < toTimes[j]) {
+                i++;
+            } else if (fromTimes[i] > toTimes[j]) {
+                j++;
+            } else {
+                times[n] = fromTimes[i];
+                rates[n++] = toValues[j] / fromValues[i];
+                i++;
+                j++;
+            }
+        }
+        return new Series(times, rates, n);
+    }
+    
+    private void load(Path path) throws IOException {
+        MoneyCodec codec = MoneyCodec.STANDARD;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(',');
+                int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+                if (second < 0 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    long time = codec.parseScaled(line, 0, first, 0);
+                    double rate = line.indexOf('E', second) < 0
+                        ? codec.parseDouble(line, second + 1, line.length())
+                        : Double.parseDouble(line.substring(second + 1));
+                    series.computeIfAbsent(line.substring(first + 1, second), k -> new Series()).append(time, rate);
+                } catch (NumberFormatException e) {
+                    // Skip a damaged line rather than lose the rest of the history
+                }
+            }
+        }
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    /**
+     * Closes the file; later snapshots are kept in memory only
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Rate history not closed cleanly: " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(RateTable table) {
+        record(table);
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Rate history stopped: " + throwable.getMessage());
+    }
+    
+    @Override
+    public void onComplete() {
+        close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Popularity-driven prefetching of base currencies
+ * getExchangeRates records every interactive lookup. Once per cycle the
+ * counts are folded into exponentially decaying scores, the top bases form
+ * the hot set, and any hot base whose cached rates are missing or close to
+ * expiry is refreshed in the background through the PREFETCH lane, and the
+ * other endpoints' rates for it are added to the rate graph. Only
+ * codes some fetch has shown to exist can become hot, so a mistyped or
+ * unsupported code is not refetched every cycle.
+ *
+ * Prefetches run on virtual threads when the JVM has them (Java 21+) and on
+ * a small daemon pool otherwise; a semaphore caps how many are in flight.
+ */
+public class RatePrefetcher {
+    
+    private static final long CYCLE = 60000;          // 1 minute
+    private static final long LEAD_TIME = 180000;     // refresh 3 minutes before expiry
+    private static final double DECAY = 0.5;          // score weight kept per cycle
+    private static final double MIN_SCORE = 0.05;
+    private static final int HOT_SET_SIZE = 15;
+    private static final int MAX_CONCURRENT = 4;
+    
+    private static final Map<String, LongAdder> window = new ConcurrentHashMap<>();
+    private static final Map<String, Double> scores = new HashMap<>(); // scheduler thread only
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private static final Semaphore permits = new Semaphore(MAX_CONCURRENT);
+    private static volatile List<String> hotSet = Collections.emptyList();
+    
+    private static ScheduledExecutorService timer;
+    private static ExecutorService prefetchExecutor;
+    
+    /**
+     * Counts one interactive lookup of a base currency
+     */
+    public static void recordAccess(String baseCurrency) {
+        if (!isCurrencyCode(baseCurrency)) {
+            return;
+        }
+        window.computeIfAbsent(baseCurrency, k -> new LongAdder()).increment();
+    }
+    
+    /**
+     * Starts background prefetching; the first cycle runs immediately
+     * @param seed Bases to treat as hot until real traffic says otherwise
+     */
+    public static synchronized void start(Collection<String> seed) {
+        if (timer != null) {
+            return;
+        }
+        
+        for (String code : seed) {
+            window.computeIfAbsent(code, k -> new LongAdder()).increment();
+        }
+        
+        prefetchExecutor = newPrefetchExecutor();
+        timer = Executors.newSingleThreadScheduledExecutor(daemon("prefetch-timer"));
+        timer.scheduleWithFixedDelay(RatePrefetcher::cycle, 0, CYCLE, TimeUnit.MILLISECONDS);
+    }
+    
+    public static synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            prefetchExecutor.shutdownNow();
+            timer = null;
+        }
+    }
+    
+    /**
+     * Current hot set, most popular first
+     */
+    public static List<String> getHotSet() {
+        return hotSet;
+    }
+    
+    static void cycle() {
+        // Fold this cycle's counts into decaying scores
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            entry.setValue(entry.getValue() * DECAY);
+        }
+        for (Map.Entry<String, LongAdder> entry : window.entrySet()) {
+            long hits = entry.getValue().sumThenReset();
+            if (!AdvancedAPICurrencyConverter.isKnownCurrency(entry.getKey())) {
+                window.remove(entry.getKey(), entry.getValue());
+            } else if (hits > 0) {
+                scores.merge(entry.getKey(), (double) hits, Double::sum);
+            }
+        }
+        scores.values().removeIf(score -> score < MIN_SCORE);
+        
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        hotSet = Collections.unmodifiableList(
+            new ArrayList<>(ranked.subList(0, Math.min(HOT_SET_SIZE, ranked.size()))));
+        
+        long now = System.currentTimeMillis();
+        for (String code : hotSet) {
+            if (AdvancedAPICurrencyConverter.cacheExpiresAt(code) - now < LEAD_TIME) {
+                prefetch(code);
+            }
+        }
+    }
+    
+    private static boolean isCurrencyCode(String code) {
+        if (code == null || code.length() != 3) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            char c = code.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void prefetch(String code) {
+        if (!inFlight.add(code)) {
+            return;
+        }
+        
+        prefetchExecutor.execute(() -> {
+            try {
+                permits.acquire();
+                try {
+                    AdvancedAPICurrencyConverter.refreshExchangeRates(code, FetchScheduler.Priority.PREFETCH);
+                    AdvancedAPICurrencyConverter.feedRateGraph(code);
+                } finally {
+                    permits.release();
+                }
+            } catch (Exception e) {
+                // Best effort: the next cycle or an interactive request will try again
+            } finally {
+                inFlight.remove(code);
+            }
+        });
+    }
+    
+    /**
+     * Virtual-thread-per-task executor when available, else a bounded pool
+     */
+    private static ExecutorService newPrefetchExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(MAX_CONCURRENT, daemon("prefetch"));
+        }
+    }
+    
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow.Publisher of rate snapshots from AdvancedAPICurrencyConverter
+ * Every fresh fetch and every live tick batch is offered to all subscribers
+ * as an immutable RateTable. Offering never blocks: each subscriber has its
+ * own bounded buffer that conflates per base currency (an undelivered
+ * snapshot is replaced by a newer one for the same base), and delivery runs
+ * on an executor, one drain task per subscriber at a time. A slow subscriber
+ * therefore only ever sees fewer, newer snapshots - it cannot stall the
+ * fetch thread or the other subscribers.
+ *
+ * Subscribers may ask for a subset of currencies; they then receive a
+ * table holding just those rates, and only when one of them changed.
+ */
+public class RateSnapshotPublisher implements Flow.Publisher<RateTable> {
+    
+    private static final int DEFAULT_BUFFER = 16;
+    
+    private final Executor executor;
+    private final int bufferSize;
+    private final CopyOnWriteArrayList<RateSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+    
+    public RateSnapshotPublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER);
+    }
+    
+    /**
+     * @param bufferSize Maximum undelivered snapshots (distinct bases) per subscriber
+     */
+    public RateSnapshotPublisher(Executor executor, int bufferSize) {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super RateTable> subscriber) {
+        subscribe(subscriber, null);
+    }
+    
+    /**
+     * Subscribes to the given currencies only (null for everything)
+     */
+    public void subscribe(Flow.Subscriber<? super RateTable> subscriber, Set<String> currencies) {
+        RateSubscription subscription = new RateSubscription(subscriber, currencies);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+    }
+    
+    /**
+     * Offers a snapshot to every subscriber; never blocks
+     */
+    public void publish(RateTable table) {
+        if (closed) {
+            return;
+        }
+        for (RateSubscription subscription : subscriptions) {
+            subscription.offer(table);
+        }
+    }
+    
+    /**
+     * Completes every subscriber once its buffer has been delivered
+     */
+    public void close() {
+        closed = true;
+        for (RateSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+    
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+    
+    private final class RateSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super RateTable> subscriber;
+        private final Set<String> currencies;
+        private final LinkedHashMap<String, RateTable> pending = new LinkedHashMap<>(); // guarded by this
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Map<String, Double> lastDelivered = new HashMap<>(); // drain task only
+        private volatile boolean cancelled;
+        private volatile boolean completing;
+        private volatile Throwable failure; // signalled by the drain task
+        private boolean done;
+        
+        RateSubscription(Flow.Subscriber<? super RateTable> subscriber, Set<String> currencies) {
+            this.subscriber = subscriber;
+            this.currencies = currencies;
+        }
+        
+        void offer(RateTable table) {
+            synchronized (this) {
+                // Latest wins: replace the undelivered snapshot for this base
+                pending.remove(table.getBase());
+                pending.put(table.getBase(), table);
+                if (pending.size() > bufferSize) {
+                    Iterator<String> eldest = pending.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            signal();
+        }
+        
+        void complete() {
+            completing = true;
+            signal();
+        }
+        
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // onError must not race the drain task's onNext, so it is signalled from there
+                subscriptions.remove(this);
+                if (failure == null) {
+                    failure = new IllegalArgumentException("Non-positive request: " + n);
+                }
+                signal();
+                return;
+            }
+            demand.accumulateAndGet(n, (current, add) -> {
+                long sum = current + add;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            signal();
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+        
+        private void signal() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+        
+        private void drain() {
+            int missed = 1;
+            do {
+                if (failure != null && !done && !cancelled) {
+                    done = true;
+                    subscriber.onError(failure);
+                }
+                
+                while (!cancelled && !done && failure == null && demand.get() > 0) {
+                    RateTable next;
+                    synchronized (this) {
+                        Iterator<RateTable> it = pending.values().iterator();
+                        if (!it.hasNext()) {
+                            break;
+                        }
+                        next = it.next();
+                        it.remove();
+                    }
+                    
+                    RateTable item = select(next);
+                    if (item == null) {
+                        continue;
+                    }
+                    
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(item);
+                    } catch (Throwable t) {
+                        cancel();
+                        subscriber.onError(t);
+                    }
+                }
+                
+                if (completing && !done && !cancelled && failure == null) {
+                    boolean empty;
+                    synchronized (this) {
+                        empty = pending.isEmpty();
+                    }
+                    if (empty) {
+                        done = true;
+                        subscriptions.remove(this);
+                        subscriber.onComplete();
+                    }
+                }
+                
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+        
+        /**
+         * Applies the subscriber's currency filter
+         * @return The table to deliver, or null if none of its currencies changed
+         */
+        private RateTable select(RateTable table) {
+            if (currencies == null) {
+                return table;
+            }
+            
+            Map<String, Double> selected = new HashMap<>();
+            boolean changed = false;
+            for (String code : currencies) {
+                if (!table.has(code)) {
+                    continue;
+                }
+                double rate = table.rate(code);
+                selected.put(code, rate);
+                Double previous = lastDelivered.put(table.getBase() + code, rate);
+                changed |= previous == null || previous != rate;
+            }
+            
+            if (!changed) {
+                return null;
+            }
+            selected.put(table.getBase(), 1.0);
+            return RateTable.of(table.getBase(), selected, table.getVersion(), table.getTimestamp());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Immutable snapshot of exchange rates quoted against one base currency
+ * Rates live in a primitive array indexed by currency slot, so a published
+ * table can be read from any thread without locks. Updates never modify a
+ * table in place - they build a new one and swap the reference.
+ */
+public final class RateTable {
+    
+    private final String base;
+    private final String[] codes;
+    private final double[] rates;
+    private final Map<String, Integer> index;
+    private final long version;
+    private final long timestamp;
+    
+    private RateTable(String base, String[] codes, double[] rates, Map<String, Integer> index,
+            long version, long timestamp) {
+        this.base = base;
+        this.codes = codes;
+        this.rates = rates;
+        this.index = index;
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+    
+    /**
+     * Builds a table from an API response of the form {"base": ..., "rates": {...}}
+     */
+    public static RateTable fromJSON(JSONObject data) {
+        String base = data.getString("base").toUpperCase();
+        JSONObject json = data.getJSONObject("rates");
+        
+        Map<String, Double> rates = new HashMap<>();
+        rates.put(base, 1.0);
+        for (String code : json.keySet()) {
+            rates.put(code.toUpperCase(), json.getDouble(code));
+        }
+        return of(base, rates, 1, System.currentTimeMillis());
+    }
+    
+    /**
+     * Builds a table from a code -> rate map (units of code per 1 base)
+     */
+    public static RateTable of(String base, Map<String, Double> rates, long version, long timestamp) {
+        String[] codes = rates.keySet().toArray(new String[0]);
+        Arrays.sort(codes);
+        
+        double[] values = new double[codes.length];
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < codes.length; i++) {
+            values[i] = rates.get(codes[i]);
+            index.put(codes[i], i);
+        }
+        return new RateTable(base, codes, values, index, version, timestamp);
+    }
+    
+    /**
+     * Returns a copy with the given rates replaced or added
+     * Existing slots keep their positions; the index is only rebuilt when a
+     * currency is seen for the first time.
+     */
+    public RateTable withRates(Map<String, Double> updates, long timestamp) {
+        boolean newCodes = false;
+        for (String code : updates.keySet()) {
+            if (!index.containsKey(code)) {
+                newCodes = true;
+                break;
+            }
+        }
+        
+        if (newCodes) {
+            Map<String, Double> merged = toMap();
+            merged.putAll(updates);
+            return of(base, merged, version + 1, timestamp);
+        }
+        
+        double[] values = rates.clone();
+        for (Map.Entry<String, Double> update : updates.entrySet()) {
+            values[index.get(update.getKey())] = update.getValue();
+        }
+        return new RateTable(base, codes, values, index, version + 1, timestamp);
+    }
+    
+    /**
+     * Slot of a currency in this table, or -1 if it is not quoted
+     */
+    public int slotOf(String code) {
+        Integer slot = index.get(code);
+        return slot == null ? -1 : slot;
+    }
+    
+    public boolean has(String code) {
+        return index.containsKey(code);
+    }
+    
+    public double rate(String code) {
+        return rates[index.get(code)];
+    }
+    
+    public double rateAt(int slot) {
+        return rates[slot];
+    }
+    
+    /**
+     * Units of toCode per 1 fromCode, derived through the table's base
+     */
+    public double crossRate(String fromCode, String toCode) {
+        return rate(toCode) / rate(fromCode);
+    }
+    
+    public String getBase() {
+        return base;
+    }
+    
+    public String codeAt(int slot) {
+        return codes[slot];
+    }
+    
+    public int size() {
+        return codes.length;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < codes.length; i++) {
+            map.put(codes[i], rates[i]);
+        }
+        return map;
+    }
+    
+    /**
+     * Converts back into the same JSON shape the APIs return
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        for (int i = 0; i < codes.length; i++) {
+            if (!codes[i].equals(base)) {
+                json.put(codes[i], rates[i]);
+            }
+        }
+        JSONObject data = new JSONObject();
+        data.put("base", base);
+        data.put("rates", json);
+        return data;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streaming tick ingestion into the live rate table
+ * A single producer publishes price ticks into a pre-allocated ring buffer.
+ * Every registered consumer runs on its own thread, sees every tick in order
+ * and handles whatever is available as one batch (Disruptor-style).
+ *
+ * The built-in LiveRateApplier conflates each batch per currency and
+ * publishes a single new RateTable per batch, so convertCurrency reads rates
+ * without locks and never sees a half-applied batch.
+ *
+ * Tick line format (file, socket or stdin): CODE,RATE[,EPOCH_MILLIS]
+ * where RATE is units of CODE per 1 unit of the live table's base.
+ */
+public class RateTickPipeline {
+    
+    /**
+     * Receives ticks on a consumer thread
+     */
+    public interface TickHandler {
+        void onTick(String currency, double rate, long timestamp, boolean endOfBatch);
+    }
+    
+    /**
+     * Ring buffer slot - reused for the lifetime of the pipeline
+     */
+    static final class Tick {
+        String currency;
+        double rate;
+        long timestamp;
+    }
+    
+    private final Tick[] ring;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1); // last published sequence
+    private final List<Consumer> consumers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+    
+    // Producer-only state, never touched by consumers
+    private long nextSequence = 0;
+    private long cachedGate = -1;
+    
+    /**
+     * @param capacity Ring size, rounded up to a power of two
+     */
+    public RateTickPipeline(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new Tick[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Tick();
+        }
+        mask = size - 1;
+    }
+    
+    /**
+     * Registers a consumer; must be called before start()
+     */
+    public void addHandler(TickHandler handler) {
+        if (running) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        consumers.add(new Consumer(handler));
+    }
+    
+    public void start() {
+        running = true;
+        int n = 0;
+        for (Consumer consumer : consumers) {
+            Thread thread = new Thread(consumer, "tick-consumer-" + (n++));
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+    
+    /**
+     * Stops the consumers after they have drained every published tick
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        threads.clear();
+    }
+    
+    /**
+     * Publishes one tick. Single producer only: call from one thread.
+     * Blocks (spin, then yield, then park) while the slowest consumer is a
+     * full ring behind.
+     */
+    public void publish(String currency, double rate, long timestamp) {
+        long sequence = nextSequence;
+        long wrapPoint = sequence - ring.length;
+        
+        if (wrapPoint > cachedGate) {
+            int idle = 0;
+            while (wrapPoint > (cachedGate = minimumConsumerSequence())) {
+                idle = backOff(idle);
+            }
+        }
+        
+        Tick tick = ring[(int) sequence & mask];
+        tick.currency = currency;
+        tick.rate = rate;
+        tick.timestamp = timestamp;
+        
+        // Release store: the slot writes above become visible before the sequence does
+        cursor.lazySet(sequence);
+        nextSequence = sequence + 1;
+    }
+    
+    /**
+     * Reads tick lines until end of stream and publishes them
+     * @return Number of ticks published
+     */
+    public long feed(BufferedReader reader) throws Exception {
+        long count = 0;
+        String line;
+        
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            
+            String[] parts = line.split(",");
+            if (parts.length < 2) {
+                continue;
+            }
+            
+            long timestamp = parts.length > 2 ? Long.parseLong(parts[2].trim()) : System.currentTimeMillis();
+            publish(parts[0].trim().toUpperCase(), Double.parseDouble(parts[1].trim()), timestamp);
+            count++;
+        }
+        return count;
+    }
+    
+    public long getPublishedCount() {
+        return cursor.get() + 1;
+    }
+    
+    private long minimumConsumerSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum == Long.MAX_VALUE ? cursor.get() : minimum;
+    }
+    
+    private static int backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+    
+    /**
+     * Consumer loop: processes every available tick as one batch, then
+     * advances its own sequence so the producer can reuse the slots
+     */
+    private final class Consumer implements Runnable {
+        final TickHandler handler;
+        final AtomicLong sequence = new AtomicLong(-1);
+        
+        Consumer(TickHandler handler) {
+            this.handler = handler;
+        }
+        
+        @Override
+        public void run() {
+            long next = 0;
+            int idle = 0;
+            
+            while (true) {
+                long available = cursor.get();
+                
+                if (available < next) {
+                    if (!running) {
+                        break;
+                    }
+                    idle = backOff(idle);
+                    continue;
+                }
+                
+                idle = 0;
+                for (long seq = next; seq <= available; seq++) {
+                    Tick tick = ring[(int) seq & mask];
+                    try {
+                        handler.onTick(tick.currency, tick.rate, tick.timestamp, seq == available);
+                    } catch (RuntimeException e) {
+                        // Keep the cursor moving, or the producer waits on this slot forever
+                        System.err.println("Tick handler failed on " + tick.currency + ": " + e);
+                    }
+                }
+                sequence.lazySet(available);
+                next = available + 1;
+            }
+        }
+    }
+    
+    /**
+     * Applies ticks to the live rate table used by convertCurrency
+     * Only the last tick per currency in a batch survives (conflation), and
+     * the whole batch becomes visible in one reference swap.
+     */
+    public static class LiveRateApplier implements TickHandler {
+        private final String base;
+        private final Map<String, Double> pending = new HashMap<>();
+        private long lastTimestamp;
+        
+        public LiveRateApplier(String base) {
+            this.base = base;
+        }
+        
+        @Override
+        public void onTick(String currency, double rate, long timestamp, boolean endOfBatch) {
+            pending.put(currency, rate);
+            lastTimestamp = timestamp;
+            
+            if (endOfBatch) {
+                RateTable current = AdvancedAPICurrencyConverter.getLiveRates();
+                RateTable next;
+                
+                if (current == null || !current.getBase().equals(base)) {
+                    Map<String, Double> seed = new HashMap<>(pending);
+                    seed.put(base, 1.0);
+                    next = RateTable.of(base, seed, 1, lastTimestamp);
+                } else {
+                    next = current.withRates(pending, lastTimestamp);
+                }
+                
+                AdvancedAPICurrencyConverter.publishLiveRates(next);
+                pending.clear();
+            }
+        }
+    }
+    
+    /**
+     * Replays ticks from a file, a TCP socket (--port N) or stdin into the
+     * live table and reports throughput
+     */
+    public static void main(String[] args) throws Exception {
+        String base = "USD";
+        
+        // Seed from the polled rates when the network is available
+        try {
+            AdvancedAPICurrencyConverter.publishLiveRates(
+                RateTable.fromJSON(AdvancedAPICurrencyConverter.getExchangeRates(base)));
+        } catch (Exception e) {
+            System.out.println("Starting with an empty live table: " + e.getMessage());
+        }
+        
+        RateTickPipeline pipeline = new RateTickPipeline(1 << 16);
+        pipeline.addHandler(new LiveRateApplier(base));
+        pipeline.start();
+        
+        long start = System.nanoTime();
+        long count;
+        
+        if (args.length >= 2 && args[0].equals("--port")) {
+            try (ServerSocket server = new ServerSocket(Integer.parseInt(args[1]))) {
+                System.out.println("Waiting for a tick feed on port " + args[1] + "...");
+                try (Socket socket = server.accept();
+                     BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(socket.getInputStream()))) {
+                    count = pipeline.feed(reader);
+                }
+            }
+        } else if (args.length >= 1) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]))) {
+                count = pipeline.feed(reader);
+            }
+        } else {
+            count = pipeline.feed(new BufferedReader(new InputStreamReader(System.in)));
+        }
+        
+        pipeline.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        RateTable live = AdvancedAPICurrencyConverter.getLiveRates();
+        System.out.printf("Applied %d ticks in %.3f s (%.0f ticks/s)%n", count, seconds, count / seconds);
+        if (live != null) {
+            System.out.println("Live table: " + live.size() + " currencies, version " + live.getVersion());
+        }
+    }
+}
\ No newline at end of file
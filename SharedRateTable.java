@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+/**
+ * Rate table in a memory-mapped file, shared by every JVM on the host
+ * One writer process publishes its rates into the file; any number of reader
+ * processes map it read-only and look rates up in place - no copies, no
+ * parsing, no locks and no sockets. The page cache makes a write visible to
+ * every mapping as soon as it lands.
+ *
+ * Consistency uses a seqlock: the writer makes the sequence odd, rewrites the
+ * rates, then makes it even again. A reader takes the sequence before and
+ * after its reads and retries if it was odd or changed in between, so a
+ * result never mixes two tables. Codes are stored sorted, so a lookup is a
+ * binary search over the mapped slots.
+ *
+ * Layout (native byte order):
+ *   0  magic(4) capacity(4) | 8 unused(8) | 16 sequence(8) | 24 count(4) base(4)
+ *   32 version(8) timestamp(8) | 64 slots: count x (code(8) rate(8))
+ */
+public class SharedRateTable {
+    
+    private static final int MAGIC = 0x52415431; // "RAT1"
+    private static final int SEQUENCE = 16;
+    private static final int COUNT = 24;
+    private static final int BASE = 28;
+    private static final int VERSION = 32;
+    private static final int TIMESTAMP = 40;
+    private static final int SLOTS = 64;
+    private static final int SLOT_SIZE = 16;
+    public static final int DEFAULT_CAPACITY = 512;
+    private static final int MAX_SPINS = 1 << 20;
+    
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    
+    private SharedRateTable(MappedByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Creates (or takes over) the file for writing
+     */
+    public static Writer create(Path file, int capacity) throws IOException {
+        long size = SLOTS + (long) capacity * SLOT_SIZE;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) != capacity) {
+                throw new IOException("Shared rate file has capacity " + buffer.getInt(4) + ", not " + capacity);
+            }
+            if (buffer.getInt(0) != MAGIC) {
+                buffer.putInt(4, capacity);
+                buffer.putInt(0, MAGIC);
+            }
+            // A writer that died mid-update leaves the sequence odd
+            long sequence = (long) LONGS.getVolatile(buffer, SEQUENCE);
+            if ((sequence & 1) != 0) {
+                LONGS.setRelease(buffer, SEQUENCE, sequence + 1);
+            }
+            return new Writer(new SharedRateTable(buffer, capacity));
+        }
+    }
+    
+    /**
+     * Maps an existing file read-only
+     */
+    public static SharedRateTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (channel.size() < SLOTS || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a shared rate file: " + file);
+            }
+            int capacity = buffer.getInt(4);
+            if (channel.size() < SLOTS + (long) capacity * SLOT_SIZE) {
+                throw new IOException("Shared rate file is truncated: " + file);
+            }
+            return new SharedRateTable(buffer, capacity);
+        }
+    }
+    
+    /**
+     * Rate of a currency against the base (units of code per 1 base), or NaN
+     */
+    public double rate(String code) {
+        long key = encode(code);
+        while (true) {
+            long before = beginRead();
+            double rate = find(key);
+            if (validate(before)) {
+                return rate;
+            }
+        }
+    }
+    
+    /**
+     * How many units of toCode one unit of fromCode buys, or NaN if either
+     * is missing; both legs come from the same table
+     */
+    public double crossRate(String fromCode, String toCode) {
+        long from = encode(fromCode);
+        long to = encode(toCode);
+        while (true) {
+            long before = beginRead();
+            double rate = find(to) / find(from);
+            if (validate(before)) {
+                return rate;
+            }
+        }
+    }
+    
+    /**
+     * Version of the published table, 0 before the first publish
+     */
+    public long getVersion() {
+        while (true) {
+            long before = beginRead();
+            long version = buffer.getLong(VERSION);
+            if (validate(before)) {
+                return version;
+            }
+        }
+    }
+    
+    /**
+     * When the published table was fetched, 0 before the first publish
+     */
+    public long getTimestamp() {
+        while (true) {
+            long before = beginRead();
+            long timestamp = buffer.getLong(TIMESTAMP);
+            if (validate(before)) {
+                return timestamp;
+            }
+        }
+    }
+    
+    /**
+     * Copies the current table onto the heap
+     */
+    public RateTable snapshot() {
+        while (true) {
+            long before = beginRead();
+            int count = Math.min(buffer.getInt(COUNT), capacity);
+            byte[] base = new byte[3];
+            for (int i = 0; i < 3; i++) {
+                base[i] = buffer.get(BASE + i);
+            }
+            long version = buffer.getLong(VERSION);
+            long timestamp = buffer.getLong(TIMESTAMP);
+            Map<String, Double> rates = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                rates.put(decode(buffer.getLong(SLOTS + i * SLOT_SIZE)), buffer.getDouble(SLOTS + i * SLOT_SIZE + 8));
+            }
+            if (validate(before)) {
+                return RateTable.of(new String(base, StandardCharsets.US_ASCII), rates, version, timestamp);
+            }
+        }
+    }
+    
+    private long beginRead() {
+        long sequence;
+        int spins = 0;
+        while (((sequence = (long) LONGS.getAcquire(buffer, SEQUENCE)) & 1) != 0) {
+            // An update takes microseconds; this long means the writer died mid-update
+            if (++spins > MAX_SPINS) {
+                throw new IllegalStateException("Shared rate writer stalled mid-update");
+            }
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+    
+    private boolean validate(long before) {
+        VarHandle.loadLoadFence();
+        return (long) LONGS.getOpaque(buffer, SEQUENCE) == before;
+    }
+    
+    /**
+     * Binary search over the sorted slots; may read garbage mid-write, which
+     * validate() then rejects
+     */
+    private double find(long key) {
+        int low = 0;
+        int high = Math.min(buffer.getInt(COUNT), capacity) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long code = buffer.getLong(SLOTS + mid * SLOT_SIZE);
+            if (code < key) {
+                low = mid + 1;
+            } else if (code > key) {
+                high = mid - 1;
+            } else {
+                return buffer.getDouble(SLOTS + mid * SLOT_SIZE + 8);
+            }
+        }
+        return Double.NaN;
+    }
+    
+    /**
+     * Three ASCII letters packed big-end first, so numeric order is code order
+     */
+    static long encode(String code) {
+        long key = 0;
+        for (int i = 0; i < 3; i++) {
+            key = (key << 8) | (i < code.length() ? (code.charAt(i) & 0xFF) : 0);
+        }
+        return key;
+    }
+    
+    static String decode(long key) {
+        return new String(new char[] {
+            (char) ((key >> 16) & 0xFF), (char) ((key >> 8) & 0xFF), (char) (key & 0xFF) });
+    }
+    
+    /**
+     * The single writer; also subscribes to the converter's snapshot publisher
+     */
+    public static class Writer implements Flow.Subscriber<RateTable> {
+        private final SharedRateTable table;
+        private String base;
+        
+        Writer(SharedRateTable table) {
+            this.table = table;
+        }
+        
+        /**
+         * Only tables quoted against this base are published (null: any)
+         */
+        public Writer forBase(String baseCurrency) {
+            this.base = baseCurrency;
+            return this;
+        }
+        
+        public SharedRateTable getTable() {
+            return table;
+        }
+        
+        /**
+         * Writes a table into the mapped file under the seqlock
+         */
+        public synchronized void publish(RateTable rates) {
+            if (rates.size() > table.capacity) {
+                throw new IllegalArgumentException(
+                    "Table has " + rates.size() + " rates, shared file holds " + table.capacity);
+            }
+            
+            MappedByteBuffer buffer = table.buffer;
+            long sequence = (long) LONGS.getOpaque(buffer, SEQUENCE);
+            LONGS.setOpaque(buffer, SEQUENCE, sequence + 1);
+            VarHandle.storeStoreFence();
+            
+            // RateTable slots are already sorted by code
+            int count = 0;
+            for (int i = 0; i < rates.size(); i++) {
+                if (rates.codeAt(i).length() != 3) {
+                    continue;
+                }
+                buffer.putLong(SLOTS + count * SLOT_SIZE, encode(rates.codeAt(i)));
+                buffer.putDouble(SLOTS + count * SLOT_SIZE + 8, rates.rateAt(i));
+                count++;
+            }
+            buffer.putInt(COUNT, count);
+            byte[] code = rates.getBase().getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < 3; i++) {
+                buffer.put(BASE + i, i < code.length ? code[i] : 0);
+            }
+            buffer.putLong(VERSION, buffer.getLong(VERSION) + 1);
+            buffer.putLong(TIMESTAMP, rates.getTimestamp());
+            
+            LONGS.setRelease(buffer, SEQUENCE, sequence + 2);
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+        
+        @Override
+        public void onNext(RateTable rates) {
+            if (base == null || base.equals(rates.getBase())) {
+                publish(rates);
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("Shared rate writer stopped: " + throwable.getMessage());
+        }
+        
+        @Override
+        public void onComplete() {
+        }
+    }
+}
\ No newline at end of file
@@ -1,8 +1,13 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
  * Simple Currency Converter
  * This is a basic version focusing on core conversion logic
+ * Rates come from rates.txt when present (see RateFileWatcher)
  */
 public class SimpleCurrencyConverter {
     
@@ -10,61 +15,60 @@ public class SimpleCurrencyConverter {
         Scanner scanner = new Scanner(System.in);
         
         // Define exchange rates (relative to USD)
-        double usdRate = 1.0;
-        double eurRate = 0.92;
-        double gbpRate = 0.79;
-        double jpyRate = 149.50;
-        double inrRate = 83.12;
+        Map<String, Double> defaultRates = new LinkedHashMap<>();
+        Map<String, String> defaultNames = new LinkedHashMap<>();
+        defaultRates.put("USD", 1.0);    defaultNames.put("USD", "US Dollar");
+        defaultRates.put("EUR", 0.92);   defaultNames.put("EUR", "Euro");
+        defaultRates.put("GBP", 0.79);   defaultNames.put("GBP", "British Pound");
+        defaultRates.put("JPY", 149.50); defaultNames.put("JPY", "Japanese Yen");
+        defaultRates.put("INR", 83.12);  defaultNames.put("INR", "Indian Rupee");
+        
+        RateFileWatcher rateFile = RateFileWatcher.forDefaultFile(
+            RateFileWatcher.Rates.of(defaultRates, defaultNames, 0));
+        try {
+            rateFile.start();
+        } catch (Exception e) {
+            System.out.println("Rate file changes will not be picked up: " + e.getMessage());
+        }
+        
+        List<String> codes = new ArrayList<>(rateFile.current().names.keySet());
         
         System.out.println("===== Currency Converter =====");
-        System.out.println("1. USD (US Dollar)");
-        System.out.println("2. EUR (Euro)");
-        System.out.println("3. GBP (British Pound)");
-        System.out.println("4. JPY (Japanese Yen)");
-        System.out.println("5. INR (Indian Rupee)");
+        for (int i = 0; i < codes.size(); i++) {
+            System.out.println((i + 1) + ". " + codes.get(i) + " (" + rateFile.current().names.get(codes.get(i)) + ")");
+        }
         System.out.println("==============================");
         
         // Get source currency
-        System.out.print("\nSelect source currency (1-5): ");
+        System.out.print("\nSelect source currency (1-" + codes.size() + "): ");
         int fromChoice = scanner.nextInt();
         
         // Get target currency
-        System.out.print("Select target currency (1-5): ");
+        System.out.print("Select target currency (1-" + codes.size() + "): ");
         int toChoice = scanner.nextInt();
         
         // Get amount
         System.out.print("Enter amount to convert: ");
         double amount = scanner.nextDouble();
         
-        // Get exchange rates for selected currencies
-        double fromRate = 0, toRate = 0;
-        String fromCurrency = "", toCurrency = "";
-        
-        // Determine FROM currency
-        switch (fromChoice) {
-            case 1: fromRate = usdRate; fromCurrency = "USD"; break;
-            case 2: fromRate = eurRate; fromCurrency = "EUR"; break;
-            case 3: fromRate = gbpRate; fromCurrency = "GBP"; break;
-            case 4: fromRate = jpyRate; fromCurrency = "JPY"; break;
-            case 5: fromRate = inrRate; fromCurrency = "INR"; break;
-            default: 
-                System.out.println("Invalid choice!");
-                scanner.close();
-                return;
+        if (fromChoice < 1 || fromChoice > codes.size() || toChoice < 1 || toChoice > codes.size()) {
+            System.out.println("Invalid choice!");
+            scanner.close();
+            return;
         }
+        String fromCurrency = codes.get(fromChoice - 1);
+        String toCurrency = codes.get(toChoice - 1);
         
-        // Determine TO currency
-        switch (toChoice) {
-            case 1: toRate = usdRate; toCurrency = "USD"; break;
-            case 2: toRate = eurRate; toCurrency = "EUR"; break;
-            case 3: toRate = gbpRate; toCurrency = "GBP"; break;
-            case 4: toRate = jpyRate; toCurrency = "JPY"; break;
-            case 5: toRate = inrRate; toCurrency = "INR"; break;
-            default: 
-                System.out.println("Invalid choice!");
-                scanner.close();
-                return;
+        // Get exchange rates for selected currencies from one snapshot,
+        // which may be newer than the menu if the file changed meanwhile
+        RateTable rates = rateFile.current().table;
+        if (!rates.has(fromCurrency) || !rates.has(toCurrency)) {
+            System.out.println("Currency no longer in the rate file!");
+            scanner.close();
+            return;
         }
+        double fromRate = rates.rate(fromCurrency);
+        double toRate = rates.rate(toCurrency);
         
         // Convert: First to USD, then to target currency
         double amountInUSD = amount / fromRate;
@@ -0,0 +1,173 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Fast-start support for the console converters
+ * --create-archive runs a training conversion in a child JVM with
+ * -XX:ArchiveClassesAtExit, leaving an AppCDS archive of every converter
+ * and org.json class it loaded. Without options, the one-shot converter is
+ * launched repeatedly with and without the archive and the time from
+ * process start to the first printed conversion is reported.
+ * Rates come from a temporary shared rate file, so runs are offline and
+ * repeatable. The archive only matches the classpath it was created with,
+ * which must be JARs: package the classes with "jar cf converter.jar".
+ */
+public class StartupBenchmark {
+    
+    public static final String DEFAULT_ARCHIVE = "converter.jsa";
+    
+    private static final Map<String, Double> SAMPLE_RATES = Map.of(
+        "USD", 1.0, "EUR", 0.92, "GBP", 0.79, "JPY", 149.5, "KES", 129.0);
+    private static final String SAMPLE_DOCUMENT =
+        "{\"base\":\"USD\",\"date\":\"2024-01-02\",\"time_last_updated\":1704153600,"
+        + "\"rates\":{\"USD\":1,\"EUR\":0.92,\"GBP\":0.79,\"JPY\":149.5,\"KES\":129.0}}";
+    
+    /**
+     * Writes a shared rate file with the sample rates, timestamped now
+     */
+    static Path sampleRates() throws IOException {
+        Path file = Files.createTempFile("startup-rates", ".shm");
+        file.toFile().deleteOnExit();
+        SharedRateTable.create(file, 64)
+            .publish(RateTable.of("USD", SAMPLE_RATES, 1, System.currentTimeMillis()));
+        return file;
+    }
+    
+    /**
+     * The path every startup should exercise: one-shot conversion, JSON
+     * parsing and the HTTP client, which fails fast when offline
+     */
+    static void train() throws IOException {
+        Path rates = sampleRates();
+        AdvancedAPICurrencyConverter.main(new String[] {
+            "--shared-rates", rates.toString(), "--convert", "100", "USD", "EUR,GBP"});
+        RateTable.fromJSON(new JSONObject(SAMPLE_DOCUMENT));
+        try {
+            APICurrencyConverter.getExchangeRates("USD");
+        } catch (Exception e) {
+            System.out.println("(network unavailable, HTTP classes loaded anyway)");
+        }
+    }
+    
+    /**
+     * Runs the training in a child JVM that dumps its classes on exit
+     * @return Child exit status
+     */
+    static int createArchive(Path archive) throws IOException, InterruptedException {
+        String classPath = System.getProperty("java.class.path");
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (Files.isDirectory(Paths.get(entry))) {
+                System.err.println("Class path entry " + entry + " is a directory; AppCDS archives need JARs");
+                return 2;
+            }
+        }
+        List<String> command = new ArrayList<>(Arrays.asList(javaExecutable(),
+            "-XX:ArchiveClassesAtExit=" + archive, "-cp", classPath, "StartupBenchmark", "--train"));
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+    
+    /**
+     * Milliseconds from launching the command to its first line of output
+     */
+    static double timeToFirstLine(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        double elapsed;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            elapsed = (System.nanoTime() - start) / 1e6;
+            if (line == null) {
+                throw new IOException("no output from " + command.get(command.size() - 1));
+            }
+            while (reader.readLine() != null) {
+                // drain so the child can exit
+            }
+        }
+        process.waitFor();
+        return elapsed;
+    }
+    
+    private static String javaExecutable() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+    
+    private static String option(List<String> options, String name, String fallback) {
+        int index = options.indexOf(name);
+        return index >= 0 && index + 1 < options.size() ? options.get(index + 1) : fallback;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        List<String> options = Arrays.asList(args);
+        if (options.contains("--train")) {
+            train();
+            return;
+        }
+        Path archive = Paths.get(option(options, "--archive", DEFAULT_ARCHIVE));
+        if (options.contains("--create-archive")) {
+            int status = createArchive(archive);
+            if (status == 0 && Files.exists(archive)) {
+                System.out.println("✓ Wrote " + archive + " (" + Files.size(archive) / 1024 + " KB)");
+            }
+            System.exit(status);
+        }
+        
+        int runs = Integer.parseInt(option(options, "--runs", "10"));
+        boolean api = options.contains("--api");
+        Path rates = sampleRates();
+        
+        // The API converter needs the network; the advanced one reads the shared file
+        List<String> program = api
+            ? Arrays.asList("APICurrencyConverter", "100", "USD", "EUR")
+            : Arrays.asList("AdvancedAPICurrencyConverter", "--shared-rates", rates.toString(),
+                "--convert", "100", "USD", "EUR");
+        
+        String[][] configurations = {
+            {"no CDS", "-Xshare:off"},
+            {"JDK CDS"},
+            {"AppCDS", "-XX:SharedArchiveFile=" + archive},
+            {"AppCDS + C1", "-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC"},
+        };
+        
+        ConsoleOutput output = ConsoleOutput.shared();
+        output.line().append("Time to first conversion, ").append(program.get(0)).append(", ")
+            .append(runs).append(" runs each").println();
+        output.line().padded("", 14).append("    min ms    median       p90").println();
+        for (String[] configuration : configurations) {
+            if (configuration.length > 1 && configuration[1].startsWith("-XX:SharedArchiveFile") && !Files.exists(archive)) {
+                output.line().padded(configuration[0], 14).append("skipped, run --create-archive first").println();
+                continue;
+            }
+            List<String> command = new ArrayList<>();
+            command.add(javaExecutable());
+            command.addAll(Arrays.asList(configuration).subList(1, configuration.length));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.addAll(program);
+            
+            timeToFirstLine(command); // let the OS cache the JARs and archive
+            double[] times = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = timeToFirstLine(command);
+            }
+            Arrays.sort(times);
+            output.line().padded(configuration[0], 14)
+                .fixed(times[0], 1, 10)
+                .fixed(times[runs / 2], 1, 10)
+                .fixed(times[Math.min(runs - 1, (int) Math.ceil(runs * 0.9) - 1)], 1, 10)
+                .println();
+        }
+        output.flush();
+    }
+}
\ No newline at end of file
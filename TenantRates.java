@@ -0,0 +1,310 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * Per-tenant rate overrides layered over one shared rate snapshot
+ * Every tenant sees the same base RateTable; a tenant only owns a small
+ * overlay of the currencies it customises - a pinned rate, a spread, or
+ * both. An overlay is an open-addressing table over packed currency codes
+ * held in primitive arrays, so a lookup is one base slot lookup plus one
+ * short probe. Overlays are immutable and replaced on every change
+ * (copy-on-write); a base refresh is a single reference swap that every
+ * tenant sees at once. Memory grows with the number of overrides, not with
+ * tenants times currencies.
+ *
+ * Rates are units of the currency per 1 unit of the base (USD by default).
+ */
+public class TenantRates implements Flow.Subscriber<RateTable> {
+    
+    private static final Overlay EMPTY = new Overlay(new int[0], new double[0], new double[0], 0);
+    
+    private final String base;
+    private volatile RateTable shared;
+    private final Map<String, Overlay> overlays = new ConcurrentHashMap<>();
+    
+    public TenantRates() {
+        this("USD");
+    }
+    
+    /**
+     * @param base Only snapshots quoted against this base are used
+     */
+    public TenantRates(String base) {
+        this.base = base;
+    }
+    
+    /**
+     * Subscribes to every snapshot the converter publishes
+     */
+    public TenantRates attach() {
+        AdvancedAPICurrencyConverter.getSnapshotPublisher().subscribe(this);
+        return this;
+    }
+    
+    /**
+     * Replaces the shared snapshot for every tenant at once
+     */
+    public void setSharedRates(RateTable rates) {
+        if (!base.equals(rates.getBase())) {
+            throw new IllegalArgumentException("Expected " + base + " rates, got " + rates.getBase());
+        }
+        shared = rates;
+    }
+    
+    public RateTable getSharedRates() {
+        return shared;
+    }
+    
+    /**
+     * Fixes a currency's rate for one tenant, whatever the shared table says
+     */
+    public void pin(String tenant, String currency, double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        int key = pack(currency);
+        overlays.compute(tenant, (k, overlay) -> {
+            Overlay current = overlay == null ? EMPTY : overlay;
+            int at = current.find(key);
+            return current.with(key, rate, at >= 0 ? current.factor[at] : 1.0);
+        });
+    }
+    
+    /**
+     * Adjusts a currency's rate for one tenant by basis points (pinned or
+     * shared): 25 quotes 0.25% more units of the currency, -25 fewer
+     */
+    public void setSpread(String tenant, String currency, double basisPoints) {
+        double factor = 1 + basisPoints / 10000;
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("Spread out of range: " + basisPoints);
+        }
+        int key = pack(currency);
+        overlays.compute(tenant, (k, overlay) -> {
+            Overlay current = overlay == null ? EMPTY : overlay;
+            int at = current.find(key);
+            return current.with(key, at >= 0 ? current.pinned[at] : Double.NaN, factor);
+        });
+    }
+    
+    /**
+     * Drops a tenant's override of one currency
+     */
+    public void clear(String tenant, String currency) {
+        int key = pack(currency);
+        overlays.computeIfPresent(tenant, (k, overlay) -> {
+            Overlay reduced = overlay.without(key);
+            return reduced.size == 0 ? null : reduced;
+        });
+    }
+    
+    public void removeTenant(String tenant) {
+        overlays.remove(tenant);
+    }
+    
+    public int getOverrideCount(String tenant) {
+        return overlays.getOrDefault(tenant, EMPTY).size;
+    }
+    
+    /**
+     * One tenant's rates against the current shared snapshot; every lookup
+     * through the view sees the same snapshot and overlay
+     * @throws IllegalStateException before the first shared snapshot
+     */
+    public View view(String tenant) {
+        RateTable rates = shared;
+        if (rates == null) {
+            throw new IllegalStateException("No " + base + " rates yet");
+        }
+        return new View(rates, overlays.getOrDefault(tenant, EMPTY));
+    }
+    
+    public double rate(String tenant, String currency) {
+        return view(tenant).rate(currency);
+    }
+    
+    public double convert(String tenant, double amount, String fromCurrency, String toCurrency) {
+        return view(tenant).convert(amount, fromCurrency, toCurrency);
+    }
+    
+    /**
+     * A tenant's overlay applied to a pinned shared snapshot
+     */
+    public static final class View {
+        private final RateTable rates;
+        private final Overlay overlay;
+        
+        View(RateTable rates, Overlay overlay) {
+            this.rates = rates;
+            this.overlay = overlay;
+        }
+        
+        /**
+         * Units of the currency per 1 base as this tenant sees it
+         * @throws IllegalArgumentException if neither the tenant nor the
+         *         shared table has a rate
+         */
+        public double rate(String currency) {
+            int at = overlay.size == 0 ? -1 : overlay.find(pack(currency));
+            double rate = at >= 0 ? overlay.pinned[at] : Double.NaN;
+            if (Double.isNaN(rate)) {
+                int slot = rates.slotOf(currency);
+                if (slot < 0) {
+                    throw new IllegalArgumentException("No rate for " + currency);
+                }
+                rate = rates.rateAt(slot);
+            }
+            return at >= 0 ? rate * overlay.factor[at] : rate;
+        }
+        
+        /**
+         * Units of toCurrency per 1 fromCurrency
+         */
+        public double crossRate(String fromCurrency, String toCurrency) {
+            return rate(toCurrency) / rate(fromCurrency);
+        }
+        
+        public double convert(double amount, String fromCurrency, String toCurrency) {
+            return amount * crossRate(fromCurrency, toCurrency);
+        }
+        
+        public long getVersion() {
+            return rates.getVersion();
+        }
+    }
+    
+    /**
+     * Immutable open-addressing map: packed code -> pinned rate (NaN: use
+     * the shared rate) and multiplicative spread
+     */
+    static final class Overlay {
+        final int[] keys;        // 0 marks an empty slot
+        final double[] pinned;
+        final double[] factor;
+        final int size;
+        
+        Overlay(int[] keys, double[] pinned, double[] factor, int size) {
+            this.keys = keys;
+            this.pinned = pinned;
+            this.factor = factor;
+            this.size = size;
+        }
+        
+        int find(int key) {
+            if (keys.length == 0) {
+                return -1;
+            }
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == 0) {
+                    return -1;
+                }
+            }
+        }
+        
+        /**
+         * Copy with one entry added or replaced; kept at most half full
+         */
+        Overlay with(int key, double pinnedRate, double spreadFactor) {
+            int at = find(key);
+            if (at >= 0) {
+                double[] newPinned = pinned.clone();
+                double[] newFactor = factor.clone();
+                newPinned[at] = pinnedRate;
+                newFactor[at] = spreadFactor;
+                return new Overlay(keys, newPinned, newFactor, size);
+            }
+            
+            int capacity = Math.max(8, keys.length);
+            while (capacity < 2 * (size + 1)) {
+                capacity *= 2;
+            }
+            Overlay grown = rehash(capacity, 0);
+            grown.insert(key, pinnedRate, spreadFactor);
+            return new Overlay(grown.keys, grown.pinned, grown.factor, size + 1);
+        }
+        
+        /**
+         * Copy without one entry
+         */
+        Overlay without(int key) {
+            if (find(key) < 0) {
+                return this;
+            }
+            return rehash(keys.length, key);
+        }
+        
+        /**
+         * Copy into a table of the given capacity, skipping one key
+         */
+        private Overlay rehash(int capacity, int skip) {
+            int[] newKeys = new int[capacity];
+            double[] newPinned = new double[capacity];
+            double[] newFactor = new double[capacity];
+            Arrays.fill(newPinned, Double.NaN);
+            Arrays.fill(newFactor, 1.0);
+            Overlay copy = new Overlay(newKeys, newPinned, newFactor, skip == 0 ? size : size - 1);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && keys[i] != skip) {
+                    copy.insert(keys[i], pinned[i], factor[i]);
+                }
+            }
+            return copy;
+        }
+        
+        /**
+         * Only used while building a new overlay, before it is published
+         */
+        private void insert(int key, double pinnedRate, double spreadFactor) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            pinned[i] = pinnedRate;
+            factor[i] = spreadFactor;
+        }
+        
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    
+    /**
+     * Three-character ASCII code as a non-zero int
+     */
+    static int pack(String code) {
+        if (code.length() != 3 || (code.charAt(0) | code.charAt(1) | code.charAt(2)) > 0x7F) {
+            throw new IllegalArgumentException("Not a currency code: " + code);
+        }
+        return (code.charAt(0) << 16) | (code.charAt(1) << 8) | code.charAt(2);
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(RateTable table) {
+        if (base.equals(table.getBase())) {
+            shared = table;
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Tenant rates stopped: " + throwable.getMessage());
+    }
+    
+    @Override
+    public void onComplete() {
+    }
+}
\ No newline at end of file